@@ -0,0 +1,55 @@
+package idespring.lab4.cache;
+
+final class AccessOrderDeque<K, V> {
+    private Node<K, V> head;
+    private Node<K, V> tail;
+
+    Node<K, V> peekFirst() {
+        return head;
+    }
+
+    Node<K, V> peekLast() {
+        return tail;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+
+    void addLast(Node<K, V> node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        node.linked = true;
+    }
+
+    void moveToBack(Node<K, V> node) {
+        if (node != tail) {
+            unlink(node);
+            addLast(node);
+        }
+    }
+
+    void unlink(Node<K, V> node) {
+        Node<K, V> prev = node.prev;
+        Node<K, V> next = node.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+}
@@ -0,0 +1,379 @@
+package idespring.lab4.cache;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache with a W-TinyLFU eviction policy.
+ *
+ * <p>Reads and writes go straight to a {@link ConcurrentHashMap}; the policy bookkeeping
+ * (access order, frequency sketch, eviction) is replayed from buffers under a lock that
+ * request threads only ever {@code tryLock}, so a cache hit never waits on another thread.
+ *
+ * <p>Expired entries are hidden on read and reclaimed through a {@link TimerWheel} during
+ * maintenance, so expiry costs O(1) per write instead of one scheduled task per put.
+ * Entries dropped by eviction or expiry are reported to the removal listener.
+ *
+ * <p>Capacity is measured in weight rather than entries: each entry costs what the
+ * {@link Weigher} says, so one large list can push out many small values.
+ */
+public final class BoundedCache<K, V> {
+    private static final double WINDOW_PERCENT = 0.01;
+    private static final double PROTECTED_PERCENT = 0.80;
+    private static final long MAX_SKETCH_CAPACITY = 1L << 20;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final StripedReadBuffer<Node<K, V>> readBuffer = new StripedReadBuffer<>();
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<>();
+    private final FrequencySketch sketch;
+    private final TimerWheel<K, V> timerWheel;
+    private final Weigher<K, V> weigher;
+    private final RemovalListener<K, V> removalListener;
+
+    private final long maximum;
+    private final long expireAfterWriteNanos;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private long windowSize;
+    private long mainSize;
+    private long protectedSize;
+    private volatile long weightedSize;
+
+    public BoundedCache(long maximum, long expireAfterWriteNanos, Weigher<K, V> weigher,
+                        RemovalListener<K, V> removalListener) {
+        if (maximum < 1) {
+            throw new IllegalArgumentException("Cache maximum weight must be positive: " + maximum);
+        }
+        this.maximum = maximum;
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+        this.timerWheel = new TimerWheel<>(System.nanoTime());
+        this.windowMaximum = Math.max(1, (long) (maximum * WINDOW_PERCENT));
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * PROTECTED_PERCENT);
+        this.sketch = new FrequencySketch(Math.min(maximum, MAX_SKETCH_CAPACITY));
+    }
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (hasExpired(node, now)) {
+            if (removeIfExpired(node, now)) {
+                node.retire();
+                afterWrite(() -> onRemove(node));
+                removalListener.onRemoval(key, node.getValue(), RemovalCause.EXPIRED);
+            }
+            return null;
+        }
+        if (readBuffer.offer(node) == StripedReadBuffer.FULL) {
+            scheduleDrain();
+        }
+        return node.getValue();
+    }
+
+    public V put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        long now = System.nanoTime();
+        Node<K, V> node = new Node<>(key, value, weight, now);
+        Object[] replaced = new Object[1];
+        Node<K, V> current = data.compute(key, (k, prior) -> {
+            if (prior == null || !prior.isAlive()) {
+                return node;
+            }
+            replaced[0] = prior.getValue();
+            prior.update(value, weight, now);
+            return prior;
+        });
+
+        if (current == node) {
+            afterWrite(() -> onAdd(node));
+            return null;
+        }
+        afterWrite(() -> onUpdate(current));
+        @SuppressWarnings("unchecked")
+        V prior = (V) replaced[0];
+        return prior;
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        int weight = weigher.weigh(key, newValue);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        long now = System.nanoTime();
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] replaced = new Node[1];
+        data.computeIfPresent(key, (k, node) -> {
+            if (node.isAlive() && node.getValue() == oldValue) {
+                node.update(newValue, weight, now);
+                replaced[0] = node;
+            }
+            return node;
+        });
+        Node<K, V> node = replaced[0];
+        if (node == null) {
+            return false;
+        }
+        afterWrite(() -> onUpdate(node));
+        return true;
+    }
+
+    public V remove(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        node.retire();
+        afterWrite(() -> onRemove(node));
+        return node.getValue();
+    }
+
+    public boolean remove(K key, V value) {
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] removed = new Node[1];
+        data.computeIfPresent(key, (k, node) -> {
+            if (node.getValue() == value) {
+                removed[0] = node;
+                return null;
+            }
+            return node;
+        });
+        Node<K, V> node = removed[0];
+        if (node == null) {
+            return false;
+        }
+        node.retire();
+        afterWrite(() -> onRemove(node));
+        return true;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /** Total weight as of the last maintenance run. */
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    public long maximum() {
+        return maximum;
+    }
+
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+
+    private void maintenance() {
+        readBuffer.drainTo(this::onAccess);
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+        }
+        if (expiresAfterWrite()) {
+            long now = System.nanoTime();
+            timerWheel.advance(now, node -> expireNode(node, now));
+        }
+        evict();
+        weightedSize = windowSize + mainSize;
+    }
+
+    private boolean expiresAfterWrite() {
+        return expireAfterWriteNanos > 0;
+    }
+
+    private boolean hasExpired(Node<K, V> node, long now) {
+        return expiresAfterWrite() && now - node.getWriteTime() >= expireAfterWriteNanos;
+    }
+
+    private boolean removeIfExpired(Node<K, V> node, long now) {
+        boolean[] removed = new boolean[1];
+        data.computeIfPresent(node.getKey(), (k, current) -> {
+            if (current == node && hasExpired(current, now)) {
+                removed[0] = true;
+                return null;
+            }
+            return current;
+        });
+        return removed[0];
+    }
+
+    private boolean expireNode(Node<K, V> node, long now) {
+        if (!removeIfExpired(node, now)) {
+            node.expireAt = node.getWriteTime() + expireAfterWriteNanos;
+            return false;
+        }
+        if (node.linked) {
+            unlink(node);
+        }
+        node.die();
+        removalListener.onRemoval(node.getKey(), node.getValue(), RemovalCause.EXPIRED);
+        return true;
+    }
+
+    private void onAdd(Node<K, V> node) {
+        if (!node.isAlive() || node.linked) {
+            return;
+        }
+        sketch.increment(node.getKey());
+        node.queueType = Node.WINDOW;
+        node.policyWeight = node.getWeight();
+        window.addLast(node);
+        windowSize += node.policyWeight;
+        if (expiresAfterWrite()) {
+            timerWheel.schedule(node, node.getWriteTime() + expireAfterWriteNanos);
+        }
+    }
+
+    private void onUpdate(Node<K, V> node) {
+        if (node.isAlive() && node.linked) {
+            reweigh(node);
+        }
+        onAccess(node);
+        if (node.isAlive() && node.linked && expiresAfterWrite()) {
+            timerWheel.schedule(node, node.getWriteTime() + expireAfterWriteNanos);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (!node.isAlive() || !node.linked) {
+            return;
+        }
+        sketch.increment(node.getKey());
+        switch (node.queueType) {
+            case Node.WINDOW -> window.moveToBack(node);
+            case Node.PROBATION -> promote(node);
+            default -> protectedDeque.moveToBack(node);
+        }
+    }
+
+    private void reweigh(Node<K, V> node) {
+        int delta = node.getWeight() - node.policyWeight;
+        node.policyWeight += delta;
+        switch (node.queueType) {
+            case Node.WINDOW -> windowSize += delta;
+            case Node.PROBATION -> mainSize += delta;
+            default -> {
+                mainSize += delta;
+                protectedSize += delta;
+            }
+        }
+    }
+
+    private void onRemove(Node<K, V> node) {
+        if (node.linked) {
+            unlink(node);
+        }
+        timerWheel.deschedule(node);
+        node.die();
+    }
+
+    private void promote(Node<K, V> node) {
+        probation.unlink(node);
+        node.queueType = Node.PROTECTED;
+        protectedDeque.addLast(node);
+        protectedSize += node.policyWeight;
+
+        while (protectedSize > protectedMaximum) {
+            Node<K, V> demoted = protectedDeque.peekFirst();
+            protectedDeque.unlink(demoted);
+            protectedSize -= demoted.policyWeight;
+            demoted.queueType = Node.PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void evict() {
+        while (windowSize > windowMaximum) {
+            Node<K, V> candidate = window.peekFirst();
+            window.unlink(candidate);
+            windowSize -= candidate.policyWeight;
+            candidate.queueType = Node.PROBATION;
+            probation.addLast(candidate);
+            mainSize += candidate.policyWeight;
+        }
+
+        while (windowSize + mainSize > maximum) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = probation.peekLast();
+            if (victim == null) {
+                victim = !protectedDeque.isEmpty() ? protectedDeque.peekFirst() : window.peekFirst();
+                if (victim == null) {
+                    return;
+                }
+                evictNode(victim);
+            } else if (candidate.policyWeight > maximum) {
+                // Never admit an entry that cannot fit; flushing everything else would not help.
+                evictNode(candidate);
+            } else if (candidate != victim
+                    && sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        unlink(node);
+        timerWheel.deschedule(node);
+        if (data.remove(node.getKey(), node)) {
+            removalListener.onRemoval(node.getKey(), node.getValue(), RemovalCause.SIZE);
+        }
+        node.die();
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queueType) {
+            case Node.WINDOW -> {
+                window.unlink(node);
+                windowSize -= node.policyWeight;
+            }
+            case Node.PROBATION -> {
+                probation.unlink(node);
+                mainSize -= node.policyWeight;
+            }
+            default -> {
+                protectedDeque.unlink(node);
+                mainSize -= node.policyWeight;
+                protectedSize -= node.policyWeight;
+            }
+        }
+    }
+}
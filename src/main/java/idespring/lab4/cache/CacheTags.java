@@ -0,0 +1,132 @@
+package idespring.lab4.cache;
+
+import idespring.lab4.model.Mark;
+import idespring.lab4.model.Student;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public final class CacheTags {
+    public static final String STUDENT_LISTS = "students";
+    public static final String SUBJECT_LISTS = "subjects";
+    public static final String GROUPS = "groups";
+    public static final String GROUP_LISTS = "groups:lists";
+    public static final String MARKS = "marks";
+
+    private static final String ANY = "*";
+    private static final String MARKS_PREFIX = "marks:";
+    private static final String GROUP_PREFIX = "group:";
+
+    private CacheTags() {
+    }
+
+    public static String student(long id) {
+        return "student:" + id;
+    }
+
+    public static String subject(long id) {
+        return "subject:" + id;
+    }
+
+    public static String group(long id) {
+        return GROUP_PREFIX + id;
+    }
+
+    /** Group id of a {@code group(id)} tag, or null for any other tag. */
+    public static Long groupOf(String tag) {
+        return tag.startsWith(GROUP_PREFIX) ? Long.valueOf(tag.substring(GROUP_PREFIX.length()))
+                : null;
+    }
+
+    public static String age(int age) {
+        return "age:" + age;
+    }
+
+    public static String marks(Long studentId, Long subjectId) {
+        return MARKS_PREFIX + (studentId != null ? studentId : ANY)
+                + ":" + (subjectId != null ? subjectId : ANY);
+    }
+
+    /**
+     * Item tags of student views: each student's own tag and their marks tag, since a view
+     * lists its mark ids.
+     */
+    public static List<String> studentViews(Collection<Student> students) {
+        List<String> tags = new ArrayList<>(students.size() * 2);
+        for (Student student : students) {
+            tags.add(student(student.getId()));
+            tags.add(marks(student.getId(), null));
+        }
+        return tags;
+    }
+
+    /** Student id of a {@code marks(studentId, null)} tag, or null for any other tag. */
+    public static Long studentOfMarks(String tag) {
+        String[] parts = marksParts(tag);
+        return parts != null && ANY.equals(parts[1]) && !ANY.equals(parts[0])
+                ? Long.valueOf(parts[0]) : null;
+    }
+
+    /** Subject id of a {@code marks(null, subjectId)} tag, or null for any other tag. */
+    public static Long subjectOfMarks(String tag) {
+        String[] parts = marksParts(tag);
+        return parts != null && ANY.equals(parts[0]) && !ANY.equals(parts[1])
+                ? Long.valueOf(parts[1]) : null;
+    }
+
+    private static String[] marksParts(String tag) {
+        if (!tag.startsWith(MARKS_PREFIX)) {
+            return null;
+        }
+        String[] parts = tag.substring(MARKS_PREFIX.length()).split(":");
+        return parts.length == 2 ? parts : null;
+    }
+
+    /**
+     * Tags of one keyset page: one per item, plus {@code listTags} when an insert could land
+     * on the page. With id order that is only the last page; filtered or name-ordered pages
+     * pass {@code affectedByInserts} for every page.
+     */
+    public static String[] page(List<String> itemTags, boolean affectedByInserts,
+                                String... listTags) {
+        List<String> tags = new ArrayList<>(itemTags);
+        if (affectedByInserts) {
+            tags.addAll(List.of(listTags));
+        }
+        return tags.toArray(String[]::new);
+    }
+
+    public static String mark(long id) {
+        return "mark:" + id;
+    }
+
+    public static String markValue(int value) {
+        return "mark-value:" + value;
+    }
+
+    public static String[] markWrite(long studentId, long subjectId, int value) {
+        return new String[] {
+            marks(studentId, subjectId),
+            marks(studentId, null),
+            marks(null, subjectId),
+            marks(null, null),
+            markValue(value)
+        };
+    }
+
+    /**
+     * Tags of every mark list and page the deleted marks appeared in, plus {@code owners}:
+     * the targeted counterpart of {@link #MARKS} for deletes that take marks with them.
+     */
+    public static String[] markDeletes(Collection<Mark> marks, String... owners) {
+        Set<String> tags = new LinkedHashSet<>(List.of(owners));
+        for (Mark mark : marks) {
+            tags.add(mark(mark.getId()));
+            tags.addAll(List.of(markWrite(mark.getStudent().getId(), mark.getSubjectId(),
+                    mark.getValue())));
+        }
+        return tags.toArray(String[]::new);
+    }
+}
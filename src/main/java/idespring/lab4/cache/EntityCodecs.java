@@ -0,0 +1,254 @@
+package idespring.lab4.cache;
+
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.model.Group;
+import idespring.lab4.model.Mark;
+import idespring.lab4.model.Student;
+import idespring.lab4.model.Subject;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Codecs for the entities kept in typed cache regions. Associations are written as ids
+ * (plus the fields the REST views expose), so a decoded entity is detached and renders
+ * the same JSON as the original.
+ */
+public final class EntityCodecs {
+    private static final long NO_ID = -1L;
+
+    private static final byte SINGLE = 0;
+    private static final byte LIST = 1;
+    private static final byte SET = 2;
+    private static final byte PAGE = 3;
+
+    private static final byte STUDENT_TYPE = 0;
+    private static final byte GROUP_TYPE = 1;
+    private static final byte SUBJECT_TYPE = 2;
+    private static final byte MARK_TYPE = 3;
+
+    public static final ValueCodec<Subject> SUBJECT = new ValueCodec<>() {
+        @Override
+        public void encode(Subject subject, DataOutput out) throws IOException {
+            writeId(subject.getId(), out);
+            writeString(subject.getName(), out);
+        }
+
+        @Override
+        public Subject decode(DataInput in) throws IOException {
+            Subject subject = new Subject(readId(in));
+            subject.setName(readString(in));
+            return subject;
+        }
+    };
+
+    public static final ValueCodec<Group> GROUP = new ValueCodec<>() {
+        @Override
+        public void encode(Group group, DataOutput out) throws IOException {
+            writeId(group.getId(), out);
+            writeString(group.getName(), out);
+        }
+
+        @Override
+        public Group decode(DataInput in) throws IOException {
+            Group group = new Group(readId(in));
+            group.setName(readString(in));
+            return group;
+        }
+    };
+
+    public static final ValueCodec<Mark> MARK = new ValueCodec<>() {
+        @Override
+        public void encode(Mark mark, DataOutput out) throws IOException {
+            writeId(mark.getId(), out);
+            out.writeByte(mark.getValue());
+            writeId(mark.getStudent() != null ? mark.getStudent().getId() : null, out);
+            writeId(mark.getSubjectId(), out);
+        }
+
+        @Override
+        public Mark decode(DataInput in) throws IOException {
+            Mark mark = new Mark();
+            mark.setId(readId(in));
+            mark.setValue(in.readByte());
+            mark.setStudentId(readId(in));
+            mark.setSubjectId(readId(in));
+            return mark;
+        }
+    };
+
+    public static final ValueCodec<Student> STUDENT = new ValueCodec<>() {
+        @Override
+        public void encode(Student student, DataOutput out) throws IOException {
+            writeId(student.getId(), out);
+            writeString(student.getName(), out);
+            out.writeInt(student.getAge());
+            writeId(student.getGroup() != null ? student.getGroup().getId() : null, out);
+            writeAll(student.getSubjects(), SUBJECT, out);
+            writeAll(student.getMarks(), MARK, out);
+        }
+
+        @Override
+        public Student decode(DataInput in) throws IOException {
+            Long id = readId(in);
+            String name = readString(in);
+            int age = in.readInt();
+            Long groupId = readId(in);
+            Set<Subject> subjects = readAll(in, SUBJECT, new HashSet<>());
+            Student student = new Student(name, age,
+                    groupId != null ? new Group(groupId) : null, subjects);
+            student.setId(id);
+            Set<Mark> marks = readAll(in, MARK, new HashSet<>());
+            for (Mark mark : marks) {
+                mark.setStudent(student);
+            }
+            student.setMarks(marks);
+            return student;
+        }
+    };
+
+    public static final ValueCodec<List<Mark>> MARK_LIST = new ValueCodec<>() {
+        @Override
+        public void encode(List<Mark> marks, DataOutput out) throws IOException {
+            writeAll(marks, MARK, out);
+        }
+
+        @Override
+        public List<Mark> decode(DataInput in) throws IOException {
+            return readAll(in, MARK, new ArrayList<>());
+        }
+    };
+
+    /**
+     * Values of the shared query region: a single entity, a list or set of them, or a cursor
+     * page. Anything else (reports, say) fails to encode and is dropped instead of moved
+     * off-heap.
+     */
+    public static final ValueCodec<Object> QUERY = new ValueCodec<>() {
+        @Override
+        public void encode(Object value, DataOutput out) throws IOException {
+            if (value instanceof List<?> list) {
+                out.writeByte(LIST);
+                writeEntities(list, out);
+            } else if (value instanceof Set<?> set) {
+                out.writeByte(SET);
+                writeEntities(set, out);
+            } else if (value instanceof CursorPage<?> page) {
+                out.writeByte(PAGE);
+                writeEntities(page.items(), out);
+                writeString(page.next(), out);
+            } else {
+                out.writeByte(SINGLE);
+                writeEntity(value, out);
+            }
+        }
+
+        @Override
+        public Object decode(DataInput in) throws IOException {
+            byte shape = in.readByte();
+            return switch (shape) {
+                case LIST -> readEntities(in, new ArrayList<>());
+                case SET -> readEntities(in, new LinkedHashSet<>());
+                case PAGE -> new CursorPage<>(readEntities(in, new ArrayList<>()),
+                        readString(in));
+                case SINGLE -> readEntity(in);
+                default -> throw new IOException("Unknown query value shape " + shape);
+            };
+        }
+    };
+
+    private EntityCodecs() {
+    }
+
+    private static void writeEntities(Collection<?> values, DataOutput out) throws IOException {
+        out.writeInt(values.size());
+        for (Object value : values) {
+            writeEntity(value, out);
+        }
+    }
+
+    private static <C extends Collection<Object>> C readEntities(DataInput in, C target)
+            throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            target.add(readEntity(in));
+        }
+        return target;
+    }
+
+    private static void writeEntity(Object value, DataOutput out) throws IOException {
+        switch (value) {
+            case Student student -> {
+                out.writeByte(STUDENT_TYPE);
+                STUDENT.encode(student, out);
+            }
+            case Group group -> {
+                out.writeByte(GROUP_TYPE);
+                GROUP.encode(group, out);
+            }
+            case Subject subject -> {
+                out.writeByte(SUBJECT_TYPE);
+                SUBJECT.encode(subject, out);
+            }
+            case Mark mark -> {
+                out.writeByte(MARK_TYPE);
+                MARK.encode(mark, out);
+            }
+            default -> throw new IOException("No codec for " + value.getClass().getName());
+        }
+    }
+
+    private static Object readEntity(DataInput in) throws IOException {
+        byte type = in.readByte();
+        return switch (type) {
+            case STUDENT_TYPE -> STUDENT.decode(in);
+            case GROUP_TYPE -> GROUP.decode(in);
+            case SUBJECT_TYPE -> SUBJECT.decode(in);
+            case MARK_TYPE -> MARK.decode(in);
+            default -> throw new IOException("Unknown entity type " + type);
+        };
+    }
+
+    private static void writeId(Long id, DataOutput out) throws IOException {
+        out.writeLong(id != null ? id : NO_ID);
+    }
+
+    private static Long readId(DataInput in) throws IOException {
+        long id = in.readLong();
+        return id != NO_ID ? id : null;
+    }
+
+    private static void writeString(String value, DataOutput out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static <T> void writeAll(Collection<T> values, ValueCodec<T> codec,
+                                     DataOutput out) throws IOException {
+        out.writeInt(values.size());
+        for (T value : values) {
+            codec.encode(value, out);
+        }
+    }
+
+    private static <T, C extends Collection<T>> C readAll(DataInput in, ValueCodec<T> codec,
+                                                          C target) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            target.add(codec.decode(in));
+        }
+        return target;
+    }
+}
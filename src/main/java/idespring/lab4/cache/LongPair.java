@@ -0,0 +1,8 @@
+package idespring.lab4.cache;
+
+/**
+ * Cache key made of two ids. Every lookup allocates one; it is a small, short-lived object
+ * and cheaper than the concatenated string key it replaced, but a hit is not allocation-free.
+ */
+public record LongPair(long first, long second) {
+}
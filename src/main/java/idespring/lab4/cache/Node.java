@@ -0,0 +1,72 @@
+package idespring.lab4.cache;
+
+final class Node<K, V> {
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    private static final int ALIVE = 0;
+    private static final int RETIRED = 1;
+    private static final int DEAD = 2;
+
+    private final K key;
+    private volatile V value;
+    private volatile int weight;
+    private volatile long writeTime;
+    private volatile int state = ALIVE;
+
+    Node<K, V> prev;
+    Node<K, V> next;
+    int queueType = WINDOW;
+    int policyWeight;
+    boolean linked;
+
+    Node<K, V> prevInTimer;
+    Node<K, V> nextInTimer;
+    long expireAt;
+
+    Node(K key, V value, int weight, long now) {
+        this.key = key;
+        this.value = value;
+        this.weight = weight;
+        this.writeTime = now;
+    }
+
+    K getKey() {
+        return key;
+    }
+
+    V getValue() {
+        return value;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    long getWriteTime() {
+        return writeTime;
+    }
+
+    void update(V value, int weight, long now) {
+        this.value = value;
+        this.weight = weight;
+        this.writeTime = now;
+    }
+
+    boolean isAlive() {
+        return state == ALIVE;
+    }
+
+    boolean isDead() {
+        return state == DEAD;
+    }
+
+    void retire() {
+        state = RETIRED;
+    }
+
+    void die() {
+        state = DEAD;
+    }
+}
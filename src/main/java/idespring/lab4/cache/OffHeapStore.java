@@ -0,0 +1,201 @@
+package idespring.lab4.cache;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Log-structured byte store in a single off-heap segment.
+ *
+ * <p>Records are appended at the head of a ring and the oldest records are overwritten when
+ * the ring wraps, so the store never fragments and needs no free list. Only the small index
+ * lives on the heap. Readers copy a record out under an optimistic stamp and retry under the
+ * read lock if a writer raced them.
+ */
+public final class OffHeapStore<K, M> {
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment segment;
+    private final long capacity;
+    private final ConcurrentHashMap<K, Slot<K, M>> index = new ConcurrentHashMap<>();
+    private final ArrayDeque<Slot<K, M>> log = new ArrayDeque<>();
+    private final StampedLock lock = new StampedLock();
+
+    private long head;
+    private long usedBytes;
+    private volatile boolean closed;
+
+    public OffHeapStore(long capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Off-heap capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.segment = arena.allocate(capacity, Long.BYTES);
+    }
+
+    /** Stores a copy of {@code bytes}; returns false if the record can never fit. */
+    public boolean put(K key, byte[] bytes, long expireAt, M metadata) {
+        int length = bytes.length;
+        if (length > capacity) {
+            return false;
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (closed) {
+                return false;
+            }
+            long offset = head % capacity;
+            if (offset + length > capacity) {
+                head += capacity - offset;
+                offset = 0;
+            }
+            reclaim(head + length - capacity);
+
+            MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset, length);
+            Slot<K, M> slot = new Slot<>(key, head, length, expireAt, metadata);
+            head += length;
+            log.addLast(slot);
+
+            Slot<K, M> previous = index.put(key, slot);
+            if (previous != null) {
+                kill(previous);
+            }
+            usedBytes += length;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Record<M> get(K key, long now) {
+        Slot<K, M> slot = index.get(key);
+        if (slot == null) {
+            return null;
+        }
+        if (slot.expireAt != NEVER && now - slot.expireAt >= 0) {
+            remove(key, slot);
+            return null;
+        }
+
+        byte[] bytes = new byte[slot.length];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && !closed && slot.live) {
+            try {
+                copy(slot, bytes);
+                if (lock.validate(stamp)) {
+                    return new Record<>(bytes, slot.metadata);
+                }
+            } catch (IllegalStateException e) {
+                // The arena was closed under us; the locked path below reports the miss.
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            if (closed || !slot.live) {
+                return null;
+            }
+            copy(slot, bytes);
+            return new Record<>(bytes, slot.metadata);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void remove(K key) {
+        Slot<K, M> slot = index.get(key);
+        if (slot != null) {
+            remove(key, slot);
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public long usedBytes() {
+        long stamp = lock.readLock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            if (!closed) {
+                closed = true;
+                index.clear();
+                log.clear();
+                usedBytes = 0;
+                arena.close();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void remove(K key, Slot<K, M> slot) {
+        long stamp = lock.writeLock();
+        try {
+            if (index.remove(key, slot)) {
+                kill(slot);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void reclaim(long overwrittenBefore) {
+        Slot<K, M> oldest;
+        while ((oldest = log.peekFirst()) != null && oldest.position < overwrittenBefore) {
+            log.pollFirst();
+            if (oldest.live) {
+                index.remove(oldest.key, oldest);
+                kill(oldest);
+            }
+        }
+    }
+
+    private void kill(Slot<K, M> slot) {
+        if (slot.live) {
+            slot.live = false;
+            usedBytes -= slot.length;
+        }
+    }
+
+    private void copy(Slot<K, M> slot, byte[] bytes) {
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, slot.position % capacity,
+                bytes, 0, slot.length);
+    }
+
+    public record Record<M>(byte[] bytes, M metadata) {
+    }
+
+    private static final class Slot<K, M> {
+        private final K key;
+        private final long position;
+        private final int length;
+        private final long expireAt;
+        private final M metadata;
+        private volatile boolean live = true;
+
+        private Slot(K key, long position, int length, long expireAt, M metadata) {
+            this.key = key;
+            this.position = position;
+            this.length = length;
+            this.expireAt = expireAt;
+            this.metadata = metadata;
+        }
+    }
+}
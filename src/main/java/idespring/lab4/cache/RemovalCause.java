@@ -0,0 +1,6 @@
+package idespring.lab4.cache;
+
+public enum RemovalCause {
+    EXPIRED,
+    SIZE
+}
@@ -0,0 +1,79 @@
+package idespring.lab4.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of recent reads. Readers publish into a stripe picked by thread id,
+ * so hits never contend on a shared lock; the policy replays the buffer in batches.
+ */
+final class StripedReadBuffer<E> {
+    static final int SUCCESS = 0;
+    static final int FAILED = 1;
+    static final int FULL = 2;
+
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    private final RingBuffer<E>[] stripes;
+    private final int stripeMask;
+
+    @SuppressWarnings("unchecked")
+    StripedReadBuffer() {
+        int count = Integer.highestOneBit(
+                Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        stripes = new RingBuffer[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new RingBuffer<>();
+        }
+        stripeMask = count - 1;
+    }
+
+    int offer(E e) {
+        long id = Thread.currentThread().threadId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return stripes[(hash >>> 16) & stripeMask].offer(e);
+    }
+
+    void drainTo(Consumer<E> consumer) {
+        for (RingBuffer<E> stripe : stripes) {
+            stripe.drainTo(consumer);
+        }
+    }
+
+    private static final class RingBuffer<E> {
+        private final AtomicLong readCounter = new AtomicLong();
+        private final AtomicLong writeCounter = new AtomicLong();
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+
+        int offer(E e) {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+            if (tail - head >= BUFFER_SIZE) {
+                return FULL;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & BUFFER_MASK), e);
+                return SUCCESS;
+            }
+            return FAILED;
+        }
+
+        void drainTo(Consumer<E> consumer) {
+            long head = readCounter.get();
+            long tail = writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & BUFFER_MASK);
+                E e = buffer.get(index);
+                if (e == null) {
+                    break;
+                }
+                buffer.lazySet(index, null);
+                consumer.accept(e);
+                head++;
+            }
+            readCounter.lazySet(head);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package idespring.lab4.cache;
+
+import java.util.function.Predicate;
+
+/**
+ * Hierarchical timing wheel keyed on each node's expiration time. Scheduling,
+ * rescheduling and cancellation are O(1); advancing only visits the buckets whose
+ * span has elapsed since the previous call.
+ */
+final class TimerWheel<K, V> {
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+        1L << 30,   // ~1.07s
+        1L << 36,   // ~1.14m
+        1L << 42,   // ~1.22h
+        1L << 47,   // ~1.63d
+        4L << 47,   // ~6.5d
+        4L << 47
+    };
+    private static final int[] SHIFT = {30, 36, 42, 47, 49};
+
+    private final Node<K, V>[][] wheel;
+    private long nanos;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long now) {
+        nanos = now;
+        wheel = new Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                Node<K, V> sentinel = new Node<>(null, null, 0, 0);
+                sentinel.prevInTimer = sentinel;
+                sentinel.nextInTimer = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    void schedule(Node<K, V> node, long expireAt) {
+        if (node.nextInTimer != null) {
+            deschedule(node);
+        }
+        node.expireAt = expireAt;
+        Node<K, V> sentinel = findBucket(expireAt);
+        node.prevInTimer = sentinel.prevInTimer;
+        node.nextInTimer = sentinel;
+        sentinel.prevInTimer.nextInTimer = node;
+        sentinel.prevInTimer = node;
+    }
+
+    void deschedule(Node<K, V> node) {
+        if (node.nextInTimer == null) {
+            return;
+        }
+        node.nextInTimer.prevInTimer = node.prevInTimer;
+        node.prevInTimer.nextInTimer = node.nextInTimer;
+        node.nextInTimer = null;
+        node.prevInTimer = null;
+    }
+
+    /**
+     * Moves the wheel to {@code now}. Due nodes are handed to {@code expirer}; a node it
+     * declines (for example one refreshed by a concurrent put) is placed back on the wheel
+     * at its current {@code expireAt}, which the expirer is expected to have updated.
+     */
+    void advance(long now, Predicate<Node<K, V>> expirer) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks, expirer);
+        }
+    }
+
+    private void expire(int index, long previousTicks, long currentTicks,
+                        Predicate<Node<K, V>> expirer) {
+        Node<K, V>[] buckets = wheel[index];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(currentTicks - previousTicks + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+
+        for (int i = start; i < end; i++) {
+            Node<K, V> sentinel = buckets[i & mask];
+            Node<K, V> node = sentinel.nextInTimer;
+            sentinel.prevInTimer = sentinel;
+            sentinel.nextInTimer = sentinel;
+
+            while (node != sentinel) {
+                Node<K, V> next = node.nextInTimer;
+                node.prevInTimer = null;
+                node.nextInTimer = null;
+                boolean due = node.expireAt - nanos <= 0L;
+                if (!due || !expirer.test(node)) {
+                    if (node.isAlive()) {
+                        schedule(node, node.expireAt);
+                    }
+                }
+                node = next;
+            }
+        }
+    }
+
+    private Node<K, V> findBucket(long time) {
+        long duration = time - nanos;
+        for (int i = 0; i < BUCKETS.length - 1; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                return wheel[i][(int) (ticks & (BUCKETS[i] - 1))];
+            }
+        }
+        return wheel[BUCKETS.length - 1][0];
+    }
+}
@@ -0,0 +1,12 @@
+package idespring.lab4.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/** Binary form of a cached value for the off-heap tier. */
+public interface ValueCodec<V> {
+    void encode(V value, DataOutput out) throws IOException;
+
+    V decode(DataInput in) throws IOException;
+}
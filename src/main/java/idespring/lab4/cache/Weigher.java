@@ -0,0 +1,33 @@
+package idespring.lab4.cache;
+
+import idespring.lab4.dto.CursorPage;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Computes how much of a {@link BoundedCache}'s capacity an entry uses.
+ * Weights are taken once per write and must not be negative.
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    int weigh(K key, V value);
+
+    /**
+     * Collections, maps and cursor pages weigh one unit per element, anything else weighs
+     * one.
+     */
+    static <K, V> Weigher<K, V> elementCount() {
+        return (key, value) -> {
+            if (value instanceof CursorPage<?> page) {
+                return Math.max(1, page.items().size());
+            }
+            if (value instanceof Collection<?> collection) {
+                return Math.max(1, collection.size());
+            }
+            if (value instanceof Map<?, ?> map) {
+                return Math.max(1, map.size());
+            }
+            return 1;
+        };
+    }
+}
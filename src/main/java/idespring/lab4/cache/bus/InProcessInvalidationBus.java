@@ -0,0 +1,53 @@
+package idespring.lab4.cache.bus;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/** Connects instances that share a JVM, such as several application contexts in one test. */
+public class InProcessInvalidationBus implements InvalidationBus {
+    private static final ConcurrentHashMap<String, Set<InProcessInvalidationBus>> CHANNELS =
+            new ConcurrentHashMap<>();
+
+    private final String channel;
+    private final List<Consumer<String[]>> listeners = new CopyOnWriteArrayList<>();
+
+    public InProcessInvalidationBus(String channel) {
+        this.channel = channel;
+        CHANNELS.computeIfAbsent(channel, c -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public void publish(String... tags) {
+        Set<InProcessInvalidationBus> peers = CHANNELS.get(channel);
+        if (peers == null) {
+            return;
+        }
+        for (InProcessInvalidationBus peer : peers) {
+            if (peer != this) {
+                peer.deliver(tags);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<String[]> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        CHANNELS.computeIfPresent(channel, (c, peers) -> {
+            peers.remove(this);
+            return peers.isEmpty() ? null : peers;
+        });
+    }
+
+    private void deliver(String[] tags) {
+        for (Consumer<String[]> listener : listeners) {
+            listener.accept(tags);
+        }
+    }
+}
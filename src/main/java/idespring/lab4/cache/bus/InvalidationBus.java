@@ -0,0 +1,16 @@
+package idespring.lab4.cache.bus;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries tag invalidations between application instances. Tags published here are
+ * delivered to the subscribers of every other instance, never back to the publisher.
+ */
+public interface InvalidationBus extends AutoCloseable {
+    void publish(String... tags);
+
+    void subscribe(Consumer<String[]> listener);
+
+    @Override
+    void close();
+}
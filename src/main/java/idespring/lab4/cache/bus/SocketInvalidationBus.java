@@ -0,0 +1,182 @@
+package idespring.lab4.cache.bus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends invalidations to a fixed list of peers as UDP datagrams.
+ *
+ * <p>Published tags are queued and flushed by one sender thread, which waits up to the batch
+ * delay for more tags and packs them, de-duplicated, into as few datagrams as possible. A
+ * lost datagram only means a peer serves an entry until its TTL, as it would without a bus.
+ */
+public class SocketInvalidationBus implements InvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(SocketInvalidationBus.class);
+    private static final int MAGIC = 0x43494e56;
+    private static final int MAX_DATAGRAM_BYTES = 60_000;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final long nodeId = ThreadLocalRandom.current().nextLong();
+    private final DatagramChannel channel;
+    private final List<InetSocketAddress> peers;
+    private final long batchDelayNanos;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final List<Consumer<String[]>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread sender;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    public SocketInvalidationBus(InetSocketAddress bindAddress, List<InetSocketAddress> peers,
+                                 long batchDelayMillis) throws IOException {
+        this.channel = DatagramChannel.open().bind(bindAddress);
+        this.peers = List.copyOf(peers);
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMillis);
+        this.sender = Thread.ofPlatform().daemon().name("cache-bus-sender").start(this::sendLoop);
+        this.receiver = Thread.ofPlatform().daemon().name("cache-bus-receiver")
+                .start(this::receiveLoop);
+        logger.info("Cache invalidation bus listening on {} with peers {}",
+                channel.getLocalAddress(), this.peers);
+    }
+
+    @Override
+    public void publish(String... tags) {
+        if (running && !peers.isEmpty()) {
+            pending.addAll(List.of(tags));
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<String[]> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        sender.interrupt();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close cache invalidation bus: {}", e.getMessage());
+        }
+    }
+
+    private void sendLoop() {
+        while (running) {
+            try {
+                Set<String> batch = new LinkedHashSet<>();
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + batchDelayNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    String tag = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (tag == null) {
+                        break;
+                    }
+                    batch.add(tag);
+                }
+                pending.drainTo(batch);
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void send(Set<String> tags) {
+        List<String> chunk = new ArrayList<>();
+        int chunkBytes = HEADER_BYTES;
+        for (String tag : tags) {
+            int tagBytes = Short.BYTES + tag.getBytes(StandardCharsets.UTF_8).length;
+            if (!chunk.isEmpty() && chunkBytes + tagBytes > MAX_DATAGRAM_BYTES) {
+                sendDatagram(chunk);
+                chunk.clear();
+                chunkBytes = HEADER_BYTES;
+            }
+            chunk.add(tag);
+            chunkBytes += tagBytes;
+        }
+        if (!chunk.isEmpty()) {
+            sendDatagram(chunk);
+        }
+    }
+
+    private void sendDatagram(List<String> tags) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeLong(nodeId);
+            out.writeInt(tags.size());
+            for (String tag : tags) {
+                byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(tagBytes.length);
+                out.write(tagBytes);
+            }
+            ByteBuffer datagram = ByteBuffer.wrap(bytes.toByteArray());
+            for (InetSocketAddress peer : peers) {
+                channel.send(datagram.rewind(), peer);
+            }
+        } catch (IOException e) {
+            if (running) {
+                logger.warn("Failed to send {} cache invalidations: {}", tags.size(), e.getMessage());
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        while (running) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                String[] tags = decode(buffer);
+                if (tags != null) {
+                    for (Consumer<String[]> listener : listeners) {
+                        listener.accept(tags);
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Dropped cache invalidation datagram: {}", e.getMessage());
+            }
+        }
+    }
+
+    private String[] decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        if (buffer.getLong() == nodeId) {
+            return null;
+        }
+        String[] tags = new String[buffer.getInt()];
+        for (int i = 0; i < tags.length; i++) {
+            byte[] tag = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(tag);
+            tags[i] = new String(tag, StandardCharsets.UTF_8);
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,50 @@
+package idespring.lab4.config;
+
+import idespring.lab4.cache.bus.InProcessInvalidationBus;
+import idespring.lab4.cache.bus.InvalidationBus;
+import idespring.lab4.cache.bus.SocketInvalidationBus;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CacheBusConfig {
+
+    @Bean(destroyMethod = "close")
+    public InvalidationBus invalidationBus(
+            @Value("${cache.bus.type:local}") String type,
+            @Value("${cache.bus.channel:lab4}") String channel,
+            @Value("${cache.bus.host:127.0.0.1}") String host,
+            @Value("${cache.bus.port:9701}") int port,
+            @Value("${cache.bus.peers:}") String peers,
+            @Value("${cache.bus.batchMillis:5}") long batchMillis) throws IOException {
+        return switch (type) {
+            case "local" -> new InProcessInvalidationBus(channel);
+            case "socket" -> new SocketInvalidationBus(new InetSocketAddress(host, port),
+                    parsePeers(peers), batchMillis);
+            default -> throw new IllegalArgumentException("Unknown cache.bus.type: " + type);
+        };
+    }
+
+    private static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            String address = peer.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected host:port in cache.bus.peers: "
+                        + address);
+            }
+            addresses.add(new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1))));
+        }
+        return addresses;
+    }
+}
@@ -1,77 +1,181 @@
 package idespring.lab4.config;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import idespring.lab4.cache.BoundedCache;
+import idespring.lab4.cache.OffHeapStore;
+import idespring.lab4.cache.RemovalCause;
+import idespring.lab4.cache.ValueCodec;
+import idespring.lab4.cache.Weigher;
+import idespring.lab4.exceptions.CacheLoadException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-@Component
 public class CacheConfig<K, V> {
-    private final ConcurrentHashMap<K, CacheEntry<V>> cache = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-    private final long maxAgeInMillis;
-    private final int maxSize;
+    private static final long MAX_CLEANUP_PERIOD_MILLIS = 1000;
+    private static final long UNBOUNDED_OFF_HEAP_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final Logger logger = LoggerFactory.getLogger(CacheConfig.class);
 
-    private final LinkedList<K> accessOrder = new LinkedList<>();
+    private final String name;
+    private final BoundedCache<K, TaggedValue<K, V>> cache;
+    private final ConcurrentHashMap<String, Set<TaggedValue<K, V>>> tagIndex =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+    private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+    private final long loadTimeoutInMillis;
+    private final long maxAgeNanos;
+    private final long refreshAfterNanos;
+    private final long offHeapAgeNanos;
+    private final Executor refreshExecutor;
+    private final ValueCodec<V> codec;
+    private final OffHeapStore<K, OffHeapTags> offHeap;
+    private final ScheduledFuture<?> cleanupTask;
 
-    private final Object lock = new Object();
+    public CacheConfig(String name, RegionSettings settings, ValueCodec<V> codec,
+                       ScheduledExecutorService executor, Executor refreshExecutor) {
+        this.name = name;
+        this.loadTimeoutInMillis = settings.loadTimeoutInMillis();
+        this.refreshExecutor = refreshExecutor;
+        this.codec = codec;
+        this.offHeap = codec != null && settings.offHeapBytes() > 0
+                ? new OffHeapStore<>(settings.offHeapBytes())
+                : null;
+        long maxAgeInMillis = settings.maxAgeInMillis();
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeInMillis);
+        this.refreshAfterNanos = settings.refreshAhead() > 0 && settings.refreshAhead() < 1
+                ? (long) (maxAgeNanos * settings.refreshAhead())
+                : 0;
+        // Off-heap copies must expire for old invalidation stamps to be pruned, so a region
+        // without a max age still bounds how long they live.
+        this.offHeapAgeNanos = maxAgeNanos > 0 ? maxAgeNanos : UNBOUNDED_OFF_HEAP_AGE_NANOS;
+        Weigher<K, V> weigher = Weigher.elementCount();
+        this.cache = new BoundedCache<>(settings.maxWeight(), maxAgeNanos,
+                (key, entry) -> weigher.weigh(key, entry.value),
+                (key, entry, cause) -> {
+                    unindex(entry);
+                    if (cause == RemovalCause.SIZE && offHeap != null) {
+                        demote(entry);
+                    }
+                });
 
-    public CacheConfig(@Value("${cache.maxAge}") long maxAgeInMillis,
-                       @Value("${cache.maxSize}") int maxSize) {
-        this.maxAgeInMillis = maxAgeInMillis;
-        this.maxSize = maxSize;
-
-        executor.scheduleAtFixedRate(this::cleanExpiredEntries,
-                maxAgeInMillis / 2,
-                maxAgeInMillis / 2,
+        long cleanupPeriod = Math.max(1, Math.min(maxAgeInMillis, MAX_CLEANUP_PERIOD_MILLIS));
+        this.cleanupTask = executor.scheduleAtFixedRate(this::cleanUp,
+                cleanupPeriod,
+                cleanupPeriod,
                 TimeUnit.MILLISECONDS);
     }
 
-    public void put(K key, V value) {
-        CacheEntry<V> entry = new CacheEntry<>(value);
+    public String getName() {
+        return name;
+    }
 
-        synchronized (lock) {
-            if (cache.containsKey(key)) {
-                accessOrder.remove(key);
-            } else if (cache.size() >= maxSize) {
-                K oldestKey = accessOrder.poll();
-                if (oldestKey != null) {
-                    cache.remove(oldestKey);
-                }
-            }
+    public void put(K key, V value, String... tags) {
+        TaggedValue<K, V> entry = new TaggedValue<>(key, value, tags);
+        index(entry);
 
-            accessOrder.addLast(key);
-            cache.put(key, entry);
+        TaggedValue<K, V> replaced = cache.put(key, entry);
+        if (replaced != null) {
+            unindex(replaced);
         }
-
-        executor.schedule(() -> remove(key), maxAgeInMillis, TimeUnit.MILLISECONDS);
+        if (offHeap != null) {
+            offHeap.remove(key);
+        }
+        dropIfDetached(entry);
     }
 
     public V get(K key) {
-        CacheEntry<V> entry = cache.get(key);
-        if (entry == null) {
-            return null;
+        TaggedValue<K, V> entry = cache.get(key);
+        return entry != null ? entry.value : fromOffHeap(key);
+    }
+
+    /**
+     * Returns the cached value or runs {@code loader} once for all concurrent callers
+     * that miss on the same key. Waiters see the loader's exception as-is, or a
+     * {@link CacheLoadException} when the load does not finish within the region's timeout.
+     */
+    public V getOrLoad(K key, Supplier<? extends V> loader, String... tags) {
+        return getOrLoad(key, loader, value -> tags);
+    }
+
+    public V getOrLoad(K key, Supplier<? extends V> loader,
+                       Function<? super V, String[]> tagger) {
+        TaggedValue<K, V> cached = cache.get(key);
+        if (cached != null) {
+            if (refreshAfterNanos > 0
+                    && System.nanoTime() - cached.createdAt >= refreshAfterNanos) {
+                refreshAhead(cached, loader, tagger);
+            }
+            return cached.value;
+        }
+        V demoted = fromOffHeap(key);
+        if (demoted != null) {
+            return demoted;
         }
 
-        entry.updateAccessTime();
-        synchronized (lock) {
-            accessOrder.remove(key);
-            accessOrder.addLast(key);
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            return await(key, inFlight);
         }
 
-        return entry.getValue();
+        try {
+            V value = get(key);
+            if (value == null) {
+                value = loader.get();
+                if (value != null) {
+                    put(key, value, tagger.apply(value));
+                }
+            }
+            load.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, load);
+        }
     }
 
     public void remove(K key) {
-        synchronized (lock) {
-            cache.remove(key);
-            accessOrder.remove(key);
+        TaggedValue<K, V> entry = cache.remove(key);
+        if (entry != null) {
+            unindex(entry);
+        }
+        if (offHeap != null) {
+            offHeap.remove(key);
+        }
+    }
+
+    public void invalidateTags(String... tags) {
+        for (String tag : tags) {
+            if (offHeap != null) {
+                invalidatedAt.put(tag, System.nanoTime());
+            }
+            Set<TaggedValue<K, V>> entries = tagIndex.remove(tag);
+            if (entries == null) {
+                continue;
+            }
+            for (TaggedValue<K, V> entry : entries) {
+                if (cache.remove(entry.key, entry)) {
+                    unindex(entry);
+                }
+            }
         }
     }
 
@@ -79,50 +183,179 @@ public class CacheConfig<K, V> {
         return cache.size();
     }
 
-    public void shutdown() {
-        executor.shutdown();
+    public long weightedSize() {
+        return cache.weightedSize();
+    }
+
+    public long maxWeight() {
+        return cache.maximum();
+    }
+
+    public int offHeapSize() {
+        return offHeap != null ? offHeap.size() : 0;
+    }
+
+    public long offHeapBytes() {
+        return offHeap != null ? offHeap.usedBytes() : 0;
+    }
+
+    public long offHeapCapacity() {
+        return offHeap != null ? offHeap.capacity() : 0;
     }
 
-    private void cleanExpiredEntries() {
-        long now = System.currentTimeMillis();
-        List<K> expiredKeys = new ArrayList<>();
+    public void shutdown() {
+        cleanupTask.cancel(false);
+        if (offHeap != null) {
+            offHeap.close();
+        }
+    }
 
-        for (Map.Entry<K, CacheEntry<V>> entry : cache.entrySet()) {
-            if (now - entry.getValue().getCreationTime() > maxAgeInMillis) {
-                expiredKeys.add(entry.getKey());
+    private V await(K key, CompletableFuture<V> inFlight) {
+        try {
+            return inFlight.get(loadTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw new CacheLoadException("Failed to load " + name + " entry " + key, e.getCause());
+        } catch (TimeoutException e) {
+            throw new CacheLoadException("Timed out waiting for " + name + " entry " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoadException("Interrupted while loading " + name + " entry " + key, e);
         }
+    }
 
-        for (K key : expiredKeys) {
-            remove(key);
+    private void refreshAhead(TaggedValue<K, V> stale, Supplier<? extends V> loader,
+                              Function<? super V, String[]> tagger) {
+        K key = stale.key;
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.get();
+                    if (value != null) {
+                        // Only replace the entry we saw: if it was invalidated or rewritten
+                        // meanwhile, the reloaded value may already be outdated.
+                        String[] tags = tagger.apply(value);
+                        TaggedValue<K, V> entry =
+                                new TaggedValue<>(key, value, tags);
+                        index(entry);
+                        if (cache.replace(key, stale, entry)) {
+                            unindex(stale);
+                            dropIfDetached(entry);
+                        } else {
+                            unindex(entry);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("Refresh-ahead failed for {} entry {}: {}",
+                            name, key, e.getMessage());
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
         }
     }
 
-    private static class CacheEntry<V> {
-        private final V value;
-        private final long creationTime;
-        private long lastAccessTime;
+    private void demote(TaggedValue<K, V> entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            codec.encode(entry.value, new DataOutputStream(bytes));
+        } catch (IOException | RuntimeException e) {
+            // Typically a lazy association that was never loaded; the entry is just dropped.
+            logger.debug("Not moving {} entry {} off-heap: {}", name, entry.key, e.getMessage());
+            return;
+        }
+        offHeap.put(entry.key, bytes.toByteArray(), entry.createdAt + offHeapAgeNanos,
+                new OffHeapTags(entry.tags, entry.createdAt));
+    }
 
-        public CacheEntry(V value) {
-            this.value = value;
-            this.creationTime = System.currentTimeMillis();
-            this.lastAccessTime = this.creationTime;
+    private V fromOffHeap(K key) {
+        if (offHeap == null) {
+            return null;
+        }
+        OffHeapStore.Record<OffHeapTags> record = offHeap.get(key, System.nanoTime());
+        if (record == null) {
+            return null;
+        }
+        // A tag invalidated after the entry was cached stamps the time, which is how
+        // invalidation reaches off-heap copies without indexing them.
+        OffHeapTags tags = record.metadata();
+        for (String tag : tags.names()) {
+            Long invalidated = invalidatedAt.get(tag);
+            if (invalidated != null && invalidated - tags.cachedAt() >= 0) {
+                offHeap.remove(key);
+                return null;
+            }
+        }
+        try {
+            return codec.decode(new DataInputStream(new ByteArrayInputStream(record.bytes())));
+        } catch (IOException e) {
+            offHeap.remove(key);
+            return null;
         }
+    }
 
-        public V getValue() {
-            return value;
+    private void cleanUp() {
+        cache.cleanUp();
+        if (offHeap != null) {
+            // Every off-heap copy cached before this point has expired, so older stamps can
+            // no longer reject anything.
+            long horizon = System.nanoTime() - offHeapAgeNanos;
+            invalidatedAt.values().removeIf(invalidated -> invalidated - horizon < 0);
         }
+    }
 
-        public long getCreationTime() {
-            return creationTime;
+    private void index(TaggedValue<K, V> entry) {
+        for (String tag : entry.tags) {
+            tagIndex.computeIfAbsent(tag, t -> ConcurrentHashMap.newKeySet()).add(entry);
         }
+    }
 
-        public long getLastAccessTime() {
-            return lastAccessTime;
+    private void dropIfDetached(TaggedValue<K, V> entry) {
+        // A tag invalidated while we were indexing detaches its set; drop the entry
+        // rather than leave a value that later invalidations can no longer reach.
+        for (String tag : entry.tags) {
+            Set<TaggedValue<K, V>> live = tagIndex.get(tag);
+            if (live == null || !live.contains(entry)) {
+                if (cache.remove(entry.key, entry)) {
+                    unindex(entry);
+                }
+                return;
+            }
         }
+    }
 
-        public void updateAccessTime() {
-            this.lastAccessTime = System.currentTimeMillis();
+    private void unindex(TaggedValue<K, V> entry) {
+        for (String tag : entry.tags) {
+            Set<TaggedValue<K, V>> entries = tagIndex.get(tag);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    tagIndex.remove(tag, entries);
+                }
+            }
         }
     }
-}
\ No newline at end of file
+
+    private static final class TaggedValue<K, V> {
+        private final K key;
+        private final V value;
+        private final String[] tags;
+        private final long createdAt = System.nanoTime();
+
+        private TaggedValue(K key, V value, String[] tags) {
+            this.key = key;
+            this.value = value;
+            this.tags = tags;
+        }
+    }
+
+    private record OffHeapTags(String[] names, long cachedAt) {
+    }
+}
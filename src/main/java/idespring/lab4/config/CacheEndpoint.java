@@ -0,0 +1,35 @@
+package idespring.lab4.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id = "caches")
+public class CacheEndpoint {
+    private final CacheRegions cacheRegions;
+
+    @Autowired
+    public CacheEndpoint(CacheRegions cacheRegions) {
+        this.cacheRegions = cacheRegions;
+    }
+
+    @ReadOperation
+    public Map<String, Map<String, Long>> regions() {
+        Map<String, Map<String, Long>> report = new LinkedHashMap<>();
+        for (CacheConfig<?, ?> region : cacheRegions.all()) {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("entries", (long) region.size());
+            stats.put("weight", region.weightedSize());
+            stats.put("maxWeight", region.maxWeight());
+            stats.put("offHeapEntries", (long) region.offHeapSize());
+            stats.put("offHeapBytes", region.offHeapBytes());
+            stats.put("offHeapCapacity", region.offHeapCapacity());
+            report.put(region.getName(), stats);
+        }
+        return report;
+    }
+}
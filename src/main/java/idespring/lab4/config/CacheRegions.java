@@ -0,0 +1,178 @@
+package idespring.lab4.config;
+
+import idespring.lab4.cache.EntityCodecs;
+import idespring.lab4.cache.LongPair;
+import idespring.lab4.cache.ValueCodec;
+import idespring.lab4.cache.bus.InvalidationBus;
+import idespring.lab4.model.Group;
+import idespring.lab4.model.Mark;
+import idespring.lab4.model.Student;
+import idespring.lab4.model.Subject;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@Component
+public class CacheRegions {
+    public static final String STUDENTS = "students";
+    public static final String GROUPS = "groups";
+    public static final String SUBJECTS = "subjects";
+    public static final String MARKS = "marks";
+    public static final String QUERIES = "queries";
+
+    private static final int REFRESH_QUEUE_CAPACITY = 256;
+
+    private final Environment environment;
+    private final InvalidationBus bus;
+    private final long defaultMaxAge;
+    private final long defaultMaxWeight;
+    private final long defaultLoadTimeout;
+    private final double defaultRefreshAhead;
+    private final ScheduledExecutorService executor;
+    private final ThreadPoolExecutor refreshExecutor;
+    private final List<CacheConfig<?, ?>> regions = new ArrayList<>();
+    private final List<Consumer<String[]>> listeners = new CopyOnWriteArrayList<>();
+
+    private final CacheConfig<Long, Student> students;
+    private final CacheConfig<Long, Group> groups;
+    private final CacheConfig<Long, Subject> subjects;
+    private final CacheConfig<LongPair, List<Mark>> marks;
+    private final CacheConfig<String, Object> queries;
+
+    public CacheRegions(Environment environment, InvalidationBus bus,
+                        @Value("${cache.maxAge}") long maxAgeInMillis,
+                        @Value("${cache.maxWeight:${cache.maxSize}}") long maxWeight,
+                        @Value("${cache.loadTimeout:5000}") long loadTimeoutInMillis,
+                        @Value("${cache.refreshAhead:0.75}") double refreshAhead,
+                        @Value("${cache.refreshThreads:2}") int refreshThreads,
+                        @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        this.environment = environment;
+        this.bus = bus;
+        this.defaultMaxAge = maxAgeInMillis;
+        this.defaultMaxWeight = maxWeight;
+        this.defaultLoadTimeout = loadTimeoutInMillis;
+        this.defaultRefreshAhead = refreshAhead;
+        // Refresh loads wait on the database, so in virtual mode they run on virtual threads
+        // too; the pool size still caps how many run at once.
+        this.executor = Executors.newScheduledThreadPool(1, threads("cache-cleanup", virtual));
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(REFRESH_QUEUE_CAPACITY),
+                threads("cache-refresh", virtual));
+
+        this.students = region(STUDENTS, EntityCodecs.STUDENT);
+        this.groups = region(GROUPS, EntityCodecs.GROUP);
+        this.subjects = region(SUBJECTS, EntityCodecs.SUBJECT);
+        this.marks = region(MARKS, EntityCodecs.MARK_LIST);
+        this.queries = region(QUERIES, EntityCodecs.QUERY);
+
+        bus.subscribe(this::invalidateLocally);
+    }
+
+    public CacheConfig<Long, Student> students() {
+        return students;
+    }
+
+    public CacheConfig<Long, Group> groups() {
+        return groups;
+    }
+
+    public CacheConfig<Long, Subject> subjects() {
+        return subjects;
+    }
+
+    public CacheConfig<LongPair, List<Mark>> marks() {
+        return marks;
+    }
+
+    public CacheConfig<String, Object> queries() {
+        return queries;
+    }
+
+    public List<CacheConfig<?, ?>> all() {
+        return Collections.unmodifiableList(regions);
+    }
+
+    /** Registers a listener for every tag invalidation on this instance, local or remote. */
+    public void subscribe(Consumer<String[]> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Invalidates tags here and on peers. Inside a transaction this waits for it to finish:
+     * dropped earlier, an entry could be reloaded from rows not committed yet and kept for
+     * its full age. Peers are only told when the transaction did not roll back.
+     */
+    public void invalidateTags(String... tags) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateLocally(tags);
+            bus.publish(tags);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        invalidateLocally(tags);
+                        if (status != STATUS_ROLLED_BACK) {
+                            bus.publish(tags);
+                        }
+                    }
+                });
+    }
+
+    /** Invalidates tags on this instance only, without telling peers. */
+    public void invalidateLocally(String... tags) {
+        for (CacheConfig<?, ?> region : regions) {
+            region.invalidateTags(tags);
+        }
+        for (Consumer<String[]> listener : listeners) {
+            listener.accept(tags);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        regions.forEach(CacheConfig::shutdown);
+        executor.shutdown();
+        refreshExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory threads(String name, boolean virtual) {
+        return virtual
+                ? Thread.ofVirtual().name(name + "-", 0).factory()
+                : Thread.ofPlatform().daemon().name(name + "-", 0).factory();
+    }
+
+    private <K, V> CacheConfig<K, V> region(String name, ValueCodec<V> codec) {
+        String prefix = "cache.regions." + name + ".";
+        long maxAge = environment.getProperty(prefix + "maxAge", Long.class, defaultMaxAge);
+        long maxWeight = environment.getProperty(prefix + "maxWeight", Long.class,
+                environment.getProperty(prefix + "maxSize", Long.class, defaultMaxWeight));
+        double refreshAhead = environment.getProperty(prefix + "refreshAhead", Double.class,
+                defaultRefreshAhead);
+        long loadTimeout = environment.getProperty(prefix + "loadTimeout", Long.class,
+                defaultLoadTimeout);
+        long offHeapBytes = environment.getProperty(prefix + "offHeapBytes", Long.class,
+                environment.getProperty("cache.offHeapBytes", Long.class, 0L));
+
+        CacheConfig<K, V> region = new CacheConfig<>(name,
+                new RegionSettings(maxWeight, maxAge, loadTimeout, refreshAhead, offHeapBytes),
+                codec, executor, refreshExecutor);
+        regions.add(region);
+        return region;
+    }
+}
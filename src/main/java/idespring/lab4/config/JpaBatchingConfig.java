@@ -0,0 +1,27 @@
+package idespring.lab4.config;
+
+import java.util.Map;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JpaBatchingConfig {
+
+    /**
+     * Groups the UPDATE and DELETE statements of a flush into JDBC batches. Inserts of
+     * IDENTITY entities still go one by one, since each needs its generated key back.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatching(
+            @Value("${jpa.batchSize:50}") int batchSize) {
+        return (Map<String, Object> properties) -> {
+            properties.put(AvailableSettings.STATEMENT_BATCH_SIZE, batchSize);
+            properties.put(AvailableSettings.ORDER_INSERTS, true);
+            properties.put(AvailableSettings.ORDER_UPDATES, true);
+            properties.put(AvailableSettings.BATCH_VERSIONED_DATA, true);
+        };
+    }
+}
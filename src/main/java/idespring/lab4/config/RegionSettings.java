@@ -0,0 +1,5 @@
+package idespring.lab4.config;
+
+public record RegionSettings(long maxWeight, long maxAgeInMillis, long loadTimeoutInMillis,
+                             double refreshAhead, long offHeapBytes) {
+}
@@ -0,0 +1,30 @@
+package idespring.lab4.controller;
+
+import idespring.lab4.dto.CursorPage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/** Responses for keyset-paginated list endpoints; the next cursor travels in a header. */
+public final class Pages {
+    private Pages() {
+    }
+
+    public static boolean requested(Integer limit, String cursor) {
+        return limit != null || cursor != null;
+    }
+
+    public static int limit(Integer limit) {
+        return limit != null ? limit : CursorPage.DEFAULT_LIMIT;
+    }
+
+    public static <C> ResponseEntity<C> ok(CursorPage<?> page, C body) {
+        if (page.items().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (!page.isLast()) {
+            response.header(CursorPage.NEXT_HEADER, page.next());
+        }
+        return response.body(body);
+    }
+}
@@ -1,9 +1,13 @@
 package idespring.lab4.controller.groupcontroller;
 
+import idespring.lab4.controller.Pages;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.exceptions.ValidationException;
 import idespring.lab4.model.Group;
 import idespring.lab4.service.groupservice.GroupService;
 import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
@@ -12,8 +16,10 @@ import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+@Validated
 @RestController
 @RequestMapping("/groups")
 public class GroupController {
@@ -47,7 +53,14 @@ public class GroupController {
     @GetMapping
     public ResponseEntity<List<Group>> getGroups(
             @RequestParam(required = false) String namePattern,
-            @RequestParam(required = false) String sort) {
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (Pages.requested(limit, cursor)) {
+            CursorPage<Group> page =
+                    groupService.readGroupsPage(namePattern, sort, cursor, Pages.limit(limit));
+            return Pages.ok(page, page.items());
+        }
         List<Group> groups = groupService.readGroups(namePattern, sort);
         return !groups.isEmpty()
                 ? ResponseEntity.ok(groups)
@@ -1,42 +1,111 @@
 package idespring.lab4.controller.markcontroller;
 
+import idespring.lab4.controller.Pages;
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.LeaderboardEntry;
+import idespring.lab4.dto.MarkBatchItem;
+import idespring.lab4.dto.MarkBatchResult;
+import idespring.lab4.dto.MarkDistribution;
+import idespring.lab4.dto.MarkTicket;
 import idespring.lab4.model.Mark;
+import idespring.lab4.service.exportservice.ExportFormat;
+import idespring.lab4.service.exportservice.ExportService;
 import idespring.lab4.service.markservice.MarkService;
+import idespring.lab4.service.markservice.MarkWriteBehind;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Validated
 @RestController
 @RequestMapping("/marks")
 public class MarkController {
+    private static final int MAX_BATCH_IDS = 1000;
+    private static final int MAX_BATCH_MARKS = 10_000;
+    private static final int MAX_LEADERBOARD_SIZE = 100;
+
     private final MarkService markService;
+    private final ExportService exportService;
+    private final MarkWriteBehind markWriteBehind;
 
-    public MarkController(MarkService markService) {
+    public MarkController(MarkService markService, ExportService exportService,
+                          MarkWriteBehind markWriteBehind) {
         this.markService = markService;
+        this.exportService = exportService;
+        this.markWriteBehind = markWriteBehind;
     }
 
     @PostMapping
-    public ResponseEntity<Mark> createMark(@Valid @RequestBody Mark mark) {
+    public ResponseEntity<?> createMark(@Valid @RequestBody Mark mark,
+                                        @RequestParam(defaultValue = "false") boolean async) {
+        if (async) {
+            MarkTicket ticket = markWriteBehind.submit(new MarkBatchItem(
+                    mark.getStudent() != null ? mark.getStudent().getId() : null,
+                    mark.getSubjectId(), mark.getValue()));
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header("Location", "/marks/tickets/" + ticket.id())
+                    .body(ticket);
+        }
         return ResponseEntity.status(HttpStatus.CREATED).body(markService.addMark(mark));
     }
 
+    @GetMapping("/tickets/{ticketId}")
+    public ResponseEntity<MarkTicket> getTicket(@NotNull @PathVariable String ticketId) {
+        MarkTicket ticket = markWriteBehind.ticket(ticketId);
+        return (ticket != null)
+                ? ResponseEntity.ok(ticket)
+                : ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+
     @GetMapping
-    public ResponseEntity<Set<Mark>> getMarks(
+    public ResponseEntity<Collection<Mark>> getMarks(
             @RequestParam(required = false) @Positive Long studentId,
-            @RequestParam(required = false) @Positive Long subjectId) {
-        Set<Mark> marks = new HashSet<>(markService.readMarks(studentId, subjectId));
+            @RequestParam(required = false) @Positive Long subjectId,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (Pages.requested(limit, cursor)) {
+            CursorPage<Mark> page =
+                    markService.readMarksPage(studentId, subjectId, cursor, Pages.limit(limit));
+            return Pages.ok(page, page.items());
+        }
+        Collection<Mark> marks = new HashSet<>(markService.readMarks(studentId, subjectId));
         return marks.isEmpty()
                 ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
                 : ResponseEntity.ok(marks);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<MarkBatchResult> createMarks(
+            @RequestBody @NotEmpty @Size(max = MAX_BATCH_MARKS) List<MarkBatchItem> marks) {
+        return ResponseEntity.ok(markService.addMarks(marks));
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportMarks(
+            @RequestParam(defaultValue = "ndjson") String format) {
+        ExportFormat exportFormat = ExportFormat.of(format);
+        return ResponseEntity.ok()
+                .header("Content-Type", exportFormat.getContentType())
+                .header("Content-Disposition",
+                        "attachment; filename=marks." + exportFormat.getExtension())
+                .body(out -> exportService.exportMarks(exportFormat, out));
+    }
+
     @GetMapping("/value/{value}")
     public ResponseEntity<Set<Mark>> getMarksByValue(@Positive @PathVariable int value) {
         Set<Mark> marks = new HashSet<>(markService.findByValue(value));
@@ -63,6 +132,85 @@ public class MarkController {
                 : ResponseEntity.status(HttpStatus.NOT_FOUND).build();
     }
 
+    @GetMapping("/average/students")
+    public ResponseEntity<Map<Long, Double>> getAverageMarksByStudents(
+            @RequestParam @NotEmpty @Size(max = MAX_BATCH_IDS) List<@Positive Long> ids) {
+        return ResponseEntity.ok(markService.getAverageMarksByStudentIds(new LinkedHashSet<>(ids)));
+    }
+
+    @GetMapping("/average/subjects")
+    public ResponseEntity<Map<Long, Double>> getAverageMarksBySubjects(
+            @RequestParam @NotEmpty @Size(max = MAX_BATCH_IDS) List<@Positive Long> ids) {
+        return ResponseEntity.ok(markService.getAverageMarksBySubjectIds(new LinkedHashSet<>(ids)));
+    }
+
+    @GetMapping("/histogram")
+    public ResponseEntity<MarkDistribution> getHistogram(
+            @RequestParam(defaultValue = "") List<@Min(1) @Max(100) Integer> percentiles) {
+        return distribution(markService.getDistribution(percentiles));
+    }
+
+    @GetMapping("/histogram/student/{studentId}")
+    public ResponseEntity<MarkDistribution> getHistogramByStudent(
+            @Positive @NotNull @PathVariable Long studentId,
+            @RequestParam(defaultValue = "") List<@Min(1) @Max(100) Integer> percentiles) {
+        return distribution(markService.getDistributionByStudentId(studentId, percentiles));
+    }
+
+    @GetMapping("/histogram/subject/{subjectId}")
+    public ResponseEntity<MarkDistribution> getHistogramBySubject(
+            @Positive @NotNull @PathVariable Long subjectId,
+            @RequestParam(defaultValue = "") List<@Min(1) @Max(100) Integer> percentiles) {
+        return distribution(markService.getDistributionBySubjectId(subjectId, percentiles));
+    }
+
+    private static ResponseEntity<MarkDistribution> distribution(MarkDistribution distribution) {
+        return (distribution != null)
+                ? ResponseEntity.ok(distribution)
+                : ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+
+    @GetMapping("/leaderboard/subject/{subjectId}")
+    public ResponseEntity<List<LeaderboardEntry>> getSubjectLeaderboard(
+            @Positive @NotNull @PathVariable Long subjectId,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_LEADERBOARD_SIZE) int limit) {
+        return leaderboard(markService.getSubjectLeaderboard(subjectId, limit));
+    }
+
+    @GetMapping("/leaderboard/group/{groupId}")
+    public ResponseEntity<List<LeaderboardEntry>> getGroupLeaderboard(
+            @Positive @NotNull @PathVariable Long groupId,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_LEADERBOARD_SIZE) int limit) {
+        return leaderboard(markService.getGroupLeaderboard(groupId, limit));
+    }
+
+    @GetMapping("/leaderboard/subject/{subjectId}/student/{studentId}")
+    public ResponseEntity<LeaderboardEntry> getSubjectRank(
+            @Positive @NotNull @PathVariable Long subjectId,
+            @Positive @NotNull @PathVariable Long studentId) {
+        return rank(markService.getSubjectRank(subjectId, studentId));
+    }
+
+    @GetMapping("/leaderboard/group/{groupId}/student/{studentId}")
+    public ResponseEntity<LeaderboardEntry> getGroupRank(
+            @Positive @NotNull @PathVariable Long groupId,
+            @Positive @NotNull @PathVariable Long studentId) {
+        return rank(markService.getGroupRank(groupId, studentId));
+    }
+
+    private static ResponseEntity<List<LeaderboardEntry>> leaderboard(
+            List<LeaderboardEntry> entries) {
+        return entries.isEmpty()
+                ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
+                : ResponseEntity.ok(entries);
+    }
+
+    private static ResponseEntity<LeaderboardEntry> rank(LeaderboardEntry entry) {
+        return (entry != null)
+                ? ResponseEntity.ok(entry)
+                : ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+
     @DeleteMapping("/delete-specific")
     public ResponseEntity<String> deleteSpecificMark(
             @RequestParam @Positive Long studentId,
@@ -1,8 +1,17 @@
 package idespring.lab4.controller.studentcontroller;
 
+import idespring.lab4.controller.Pages;
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.StudentFilter;
+import idespring.lab4.dto.StudentReport;
+import idespring.lab4.exceptions.ValidationException;
 import idespring.lab4.model.Student;
+import idespring.lab4.service.exportservice.ExportFormat;
+import idespring.lab4.service.exportservice.ExportService;
 import idespring.lab4.service.studservice.StudentServ;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
 import java.util.List;
@@ -11,16 +20,19 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Validated
 @RestController
 @RequestMapping("/students")
 public class StudentController {
     private final StudentServ studentService;
+    private final ExportService exportService;
 
     @Autowired
-    public StudentController(StudentServ studentService) {
+    public StudentController(StudentServ studentService, ExportService exportService) {
         this.studentService = studentService;
+        this.exportService = exportService;
     }
 
     @PostMapping
@@ -28,17 +40,63 @@ public class StudentController {
         return ResponseEntity.status(HttpStatus.CREATED).body(studentService.addStudent(student));
     }
 
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportStudents(
+            @RequestParam(defaultValue = "ndjson") String format) {
+        ExportFormat exportFormat = ExportFormat.of(format);
+        return ResponseEntity.ok()
+                .header("Content-Type", exportFormat.getContentType())
+                .header("Content-Disposition",
+                        "attachment; filename=students." + exportFormat.getExtension())
+                .body(out -> exportService.exportStudents(exportFormat, out));
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<List<Student>> searchStudents(
+            @RequestParam(required = false) @Min(0) Integer minAge,
+            @RequestParam(required = false) @Min(0) Integer maxAge,
+            @RequestParam(required = false) @Positive Long groupId,
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) @Positive Long subjectId,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "asc") String direction,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit) {
+        if (!"asc".equalsIgnoreCase(direction) && !"desc".equalsIgnoreCase(direction)) {
+            throw new ValidationException("direction must be asc or desc");
+        }
+        StudentFilter filter = new StudentFilter(minAge, maxAge, groupId, name, subjectId,
+                StudentFilter.Sort.of(sort), "desc".equalsIgnoreCase(direction),
+                Pages.limit(limit));
+        List<Student> students = studentService.searchStudents(filter);
+        return students.isEmpty()
+                ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
+                : ResponseEntity.ok(students);
+    }
+
     @GetMapping("/{studentId}")
     public ResponseEntity<Student> getStudentById(@Positive @NotNull @PathVariable Long studentId) {
         Student student = studentService.findById(studentId);
         return ResponseEntity.ok(student);
     }
 
+    @GetMapping("/{studentId}/report")
+    public ResponseEntity<StudentReport> getStudentReport(
+            @Positive @NotNull @PathVariable Long studentId) {
+        return ResponseEntity.ok(studentService.getReport(studentId));
+    }
+
     @GetMapping
     public ResponseEntity<List<Student>> getStudents(
             @RequestParam(required = false) Integer age,
             @RequestParam(required = false) String sort,
-            @RequestParam(required = false) Long id) {
+            @RequestParam(required = false) Long id,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (id == null && Pages.requested(limit, cursor)) {
+            CursorPage<Student> page =
+                    studentService.readStudentsPage(age, sort, cursor, Pages.limit(limit));
+            return Pages.ok(page, page.items());
+        }
         List<Student> students = studentService.readStudents(age, sort, id);
         return students.isEmpty()
                 ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
@@ -1,10 +1,15 @@
 package idespring.lab4.controller.studsubcontroller;
 
+import idespring.lab4.controller.Pages;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.model.Student;
 import idespring.lab4.model.Subject;
 import idespring.lab4.service.studentsubjserv.StudentSubjectService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,9 +56,16 @@ public class StudentSubjectController {
     }
 
     @GetMapping("/{subjectId}/students")
-    public ResponseEntity<Set<Student>>
-        getStudentsBySubject(@PathVariable @NotNull @Positive Long subjectId) {
-        Set<Student> students = studentSubjectService.getStudentsBySubject(subjectId);
+    public ResponseEntity<Collection<Student>> getStudentsBySubject(
+            @PathVariable @NotNull @Positive Long subjectId,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (Pages.requested(limit, cursor)) {
+            CursorPage<Student> page = studentSubjectService.getStudentsBySubjectPage(
+                    subjectId, cursor, Pages.limit(limit));
+            return Pages.ok(page, page.items());
+        }
+        Collection<Student> students = studentSubjectService.getStudentsBySubject(subjectId);
         return students.isEmpty()
                 ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
                 : ResponseEntity.ok(students);
@@ -1,13 +1,17 @@
 package idespring.lab4.controller.subjectcontroller;
 
+import idespring.lab4.controller.Pages;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.model.Subject;
 import idespring.lab4.service.subjectservice.SubjectService;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.Set;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -34,10 +38,18 @@ public class SubjectController {
     }
 
     @GetMapping
-    public ResponseEntity<Set<Subject>> getSubjects(
+    public ResponseEntity<Collection<Subject>> getSubjects(
             @RequestParam(required = false) String namePattern,
-            @RequestParam(required = false) String sort) {
-        Set<Subject> subjects = new HashSet<>(subjectService.readSubjects(namePattern, sort));
+            @RequestParam(required = false) String sort,
+            @RequestParam(required = false) @Min(1) @Max(CursorPage.MAX_LIMIT) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (Pages.requested(limit, cursor)) {
+            CursorPage<Subject> page = subjectService.readSubjectsPage(namePattern, sort, cursor,
+                    Pages.limit(limit));
+            return Pages.ok(page, page.items());
+        }
+        Collection<Subject> subjects =
+                new HashSet<>(subjectService.readSubjects(namePattern, sort));
         return subjects.isEmpty()
                 ? ResponseEntity.status(HttpStatus.NOT_FOUND).build()
                 : ResponseEntity.ok(subjects);
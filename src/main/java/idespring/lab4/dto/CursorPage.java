@@ -0,0 +1,15 @@
+package idespring.lab4.dto;
+
+import java.util.List;
+
+/** One page of a keyset-paginated list; {@code next} is null on the last page. */
+public record CursorPage<T>(List<T> items, String next) {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+    public static final String NEXT_HEADER = "X-Next-Cursor";
+
+    /** True for the last page, the only one that rows inserted later can land on. */
+    public boolean isLast() {
+        return next == null;
+    }
+}
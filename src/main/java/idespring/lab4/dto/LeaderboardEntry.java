@@ -0,0 +1,5 @@
+package idespring.lab4.dto;
+
+/** A student's place on a leaderboard, ranked by average mark; {@code rank} starts at 1. */
+public record LeaderboardEntry(int rank, long studentId, double average, long count) {
+}
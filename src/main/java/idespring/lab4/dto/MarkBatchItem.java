@@ -0,0 +1,5 @@
+package idespring.lab4.dto;
+
+/** One mark of a batch upload; checked per item so one bad row does not reject the rest. */
+public record MarkBatchItem(Long studentId, Long subjectId, Integer value) {
+}
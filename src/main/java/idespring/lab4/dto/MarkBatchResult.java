@@ -0,0 +1,11 @@
+package idespring.lab4.dto;
+
+import java.util.List;
+
+/** Outcome of a batch upload: how many marks were stored and why the others were not. */
+public record MarkBatchResult(int inserted, List<Failure> failures) {
+
+    /** A rejected item, identified by its position in the request. */
+    public record Failure(int index, String reason) {
+    }
+}
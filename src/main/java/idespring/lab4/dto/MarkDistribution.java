@@ -0,0 +1,14 @@
+package idespring.lab4.dto;
+
+import java.util.Map;
+
+/**
+ * Distribution of mark values: how many marks of each value, their average and median,
+ * and the requested nearest-rank percentiles keyed by percentile.
+ */
+public record MarkDistribution(long count,
+                               double average,
+                               int median,
+                               Map<Integer, Long> counts,
+                               Map<Integer, Integer> percentiles) {
+}
@@ -0,0 +1,12 @@
+package idespring.lab4.dto;
+
+/** Receipt for a mark queued for asynchronous write, and its current status. */
+public record MarkTicket(String id, Status status, String reason) {
+
+    public enum Status {
+        QUEUED,
+        STORED,
+        REJECTED,
+        FAILED
+    }
+}
@@ -0,0 +1,31 @@
+package idespring.lab4.dto;
+
+import idespring.lab4.exceptions.ValidationException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position after the last row of a page: its id and, for name-ordered pages, its name.
+ * Clients only see it as an opaque URL-safe token.
+ */
+public record PageCursor(long id, String name) {
+
+    public String encode() {
+        String key = name != null ? id + ":" + name : Long.toString(id);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String token) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = key.indexOf(':');
+            return separator < 0
+                    ? new PageCursor(Long.parseLong(key), null)
+                    : new PageCursor(Long.parseLong(key.substring(0, separator)),
+                            key.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid page cursor: " + token);
+        }
+    }
+}
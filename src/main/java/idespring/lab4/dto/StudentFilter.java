@@ -0,0 +1,38 @@
+package idespring.lab4.dto;
+
+import idespring.lab4.exceptions.ValidationException;
+import java.util.Locale;
+
+/**
+ * Any combination of student search criteria. Null fields do not filter; a null
+ * {@code limit} returns every match. Use {@link #normalized()} before keying caches on it.
+ */
+public record StudentFilter(Integer minAge, Integer maxAge, Long groupId, String namePrefix,
+                            Long subjectId, Sort sort, boolean descending, Integer limit) {
+
+    public enum Sort {
+        ID, NAME, AGE;
+
+        public static Sort of(String sort) {
+            if (sort == null) {
+                return ID;
+            }
+            try {
+                return valueOf(sort.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ValidationException("Unknown sort key: " + sort);
+            }
+        }
+    }
+
+    /** The same filter with defaults applied and an empty name prefix dropped. */
+    public StudentFilter normalized() {
+        if (minAge != null && maxAge != null && minAge > maxAge) {
+            throw new ValidationException("minAge must not be greater than maxAge");
+        }
+        String prefix = namePrefix != null && !namePrefix.isBlank()
+                ? namePrefix.trim().toLowerCase(Locale.ROOT) : null;
+        return new StudentFilter(minAge, maxAge, groupId, prefix, subjectId,
+                sort != null ? sort : Sort.ID, descending, limit);
+    }
+}
@@ -0,0 +1,13 @@
+package idespring.lab4.dto;
+
+import java.util.List;
+
+/** A student's subjects with their marks and averages, as one report card. */
+public record StudentReport(long studentId, String name, int age, Long groupId,
+                            String groupName, Double average, long markCount,
+                            List<SubjectReport> subjects) {
+
+    public record SubjectReport(long subjectId, String name, List<Integer> marks,
+                                Double average) {
+    }
+}
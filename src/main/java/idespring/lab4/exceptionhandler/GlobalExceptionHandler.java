@@ -1,6 +1,10 @@
 package idespring.lab4.exceptionhandler;
 
+import idespring.lab4.exceptions.CacheLoadException;
+import idespring.lab4.exceptions.DatabaseOverloadedException;
+import idespring.lab4.exceptions.DeadlineExceededException;
 import idespring.lab4.exceptions.EntityNotFoundException;
+import idespring.lab4.exceptions.MarkQueueFullException;
 import idespring.lab4.exceptions.SubjectNotAssignedException;
 import idespring.lab4.exceptions.ValidationException;
 import jakarta.validation.ConstraintViolationException;
@@ -89,6 +93,41 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(response);
     }
 
+    @ExceptionHandler(CacheLoadException.class)
+    public ResponseEntity<Map<String, String>> handleCacheLoadException(CacheLoadException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<Map<String, String>> handleDeadlineExceededException(
+            DeadlineExceededException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+    }
+
+    @ExceptionHandler(DatabaseOverloadedException.class)
+    public ResponseEntity<Map<String, String>> handleDatabaseOverloadedException(
+            DatabaseOverloadedException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .body(response);
+    }
+
+    @ExceptionHandler(MarkQueueFullException.class)
+    public ResponseEntity<Map<String, String>> handleMarkQueueFullException(
+            MarkQueueFullException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", "1")
+                .body(response);
+    }
+
     @ExceptionHandler(RuntimeException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<Map<String, String>> handleRuntimeException(RuntimeException ex) {
@@ -0,0 +1,11 @@
+package idespring.lab4.exceptions;
+
+public class CacheLoadException extends RuntimeException {
+    public CacheLoadException(String message) {
+        super(message);
+    }
+
+    public CacheLoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,7 @@
+package idespring.lab4.exceptions;
+
+public class DatabaseOverloadedException extends RuntimeException {
+    public DatabaseOverloadedException(String message) {
+        super(message);
+    }
+}
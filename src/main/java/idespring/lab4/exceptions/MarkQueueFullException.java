@@ -0,0 +1,7 @@
+package idespring.lab4.exceptions;
+
+public class MarkQueueFullException extends RuntimeException {
+    public MarkQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,165 @@
+package idespring.lab4.limiter;
+
+import idespring.lab4.exceptions.DatabaseOverloadedException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gradient concurrency limit for database calls. A slow average of call latency is the
+ * baseline and a fast one the current reading; while the current reading stays near the
+ * baseline the limit grows by about its square root, and as latency climbs above it the
+ * limit shrinks in proportion. Calls over the limit wait briefly in a bounded queue and are
+ * shed with {@link DatabaseOverloadedException} when it is full or the wait runs out.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter {
+    private static final double LONG_WINDOW = 600;
+    private static final double SHORT_WINDOW = 10;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double DRIFT_RATIO = 2;
+    private static final double DRIFT_DECAY = 0.95;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final double smoothing;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejected;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    @Autowired
+    public AdaptiveConcurrencyLimiter(@Value("${limiter.enabled:true}") boolean enabled,
+                                      @Value("${limiter.initialLimit:10}") int initialLimit,
+                                      @Value("${limiter.minLimit:2}") int minLimit,
+                                      @Value("${limiter.maxLimit:100}") int maxLimit,
+                                      @Value("${limiter.maxQueue:50}") int maxQueue,
+                                      @Value("${limiter.maxWaitMillis:100}") long maxWaitMillis,
+                                      @Value("${limiter.smoothing:0.2}") double smoothing) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.smoothing = smoothing;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Takes a slot, waiting in the queue if the limit is reached. */
+    public void acquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return;
+            }
+            if (queued >= maxQueue) {
+                throw shed("Database is overloaded, retry later");
+            }
+            queued++;
+            try {
+                long remaining = maxWaitNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        throw shed("Database is overloaded, timed out waiting for a slot");
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw shed("Interrupted while waiting for a database slot");
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot. Only calls that completed normally contribute their latency; failures
+     * say little about how long a healthy call takes.
+     */
+    public void release(long rttNanos, boolean completed) {
+        lock.lock();
+        try {
+            int active = inFlight--;
+            int before = (int) limit;
+            if (completed) {
+                update(rttNanos, active);
+            }
+            if ((int) limit > before) {
+                released.signalAll();
+            } else {
+                released.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        lock.lock();
+        try {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("enabled", enabled);
+            report.put("limit", (int) limit);
+            report.put("inFlight", inFlight);
+            report.put("queued", queued);
+            report.put("maxQueue", maxQueue);
+            report.put("rejected", rejected);
+            report.put("baselineRttMillis", longRttNanos / 1_000_000);
+            report.put("currentRttMillis", shortRttNanos / 1_000_000);
+            return report;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(long rttNanos, int active) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+            shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        }
+        // After a long overload the baseline sits far above recovered latency; pull it down
+        // faster than the slow average would, so the limit can settle again.
+        if (longRttNanos > shortRttNanos * DRIFT_RATIO) {
+            longRttNanos *= DRIFT_DECAY;
+        }
+        // While fewer than half the slots are used the application, not the database, bounds
+        // concurrency, and the latency says nothing about a higher limit.
+        if (active < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / shortRttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit,
+                limit * (1 - smoothing) + target * smoothing));
+    }
+
+    private DatabaseOverloadedException shed(String message) {
+        rejected++;
+        return new DatabaseOverloadedException(message);
+    }
+}
@@ -0,0 +1,23 @@
+package idespring.lab4.limiter;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id = "dblimit")
+public class LimiterEndpoint {
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    @Autowired
+    public LimiterEndpoint(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @ReadOperation
+    public Map<String, Object> limit() {
+        return limiter.snapshot();
+    }
+}
@@ -0,0 +1,68 @@
+package idespring.lab4.limiter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs repository calls under the {@link AdaptiveConcurrencyLimiter}; only the outermost
+ * repository call of a thread holds a slot. Ordered first, so a repository's own
+ * transaction opens after admission, but a service-level {@code @Transactional} method has
+ * already taken its connection by then: the limit bounds statements in flight, not pooled
+ * connections.
+ *
+ * <p>A {@link Stream} result keeps its cursor open after the call returns, so its slot is
+ * held until the stream is closed; the latency sampled is the time to open it.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RepositoryLimitAspect {
+    private static final ThreadLocal<Boolean> HOLDING = ThreadLocal.withInitial(() -> false);
+
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    @Autowired
+    public RepositoryLimitAspect(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Around("execution(* idespring.lab4.repository..*(..))")
+    public Object limit(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!limiter.isEnabled() || HOLDING.get()) {
+            return joinPoint.proceed();
+        }
+        limiter.acquire();
+        HOLDING.set(true);
+        long start = System.nanoTime();
+        boolean completed = false;
+        boolean streaming = false;
+        try {
+            Object result = joinPoint.proceed();
+            completed = true;
+            if (result instanceof Stream<?> stream) {
+                long rttNanos = System.nanoTime() - start;
+                AtomicBoolean released = new AtomicBoolean();
+                Stream<?> limited = stream.onClose(() -> {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.release(rttNanos, true);
+                    }
+                });
+                streaming = true;
+                return limited;
+            }
+            return result;
+        } finally {
+            HOLDING.set(false);
+            if (!streaming) {
+                limiter.release(System.nanoTime() - start, completed);
+            }
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class Student {
 
     private int age;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "groupid")
     @JsonIdentityReference(alwaysAsId = true)
     private Group group;
@@ -0,0 +1,89 @@
+package idespring.lab4.repository;
+
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.PageCursor;
+import idespring.lab4.exceptions.ValidationException;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Keyset pagination for any entity with an id (and, for name order, a name). Each page
+ * continues from the key of the previous page's last row, so reading page N costs the same
+ * as page 1 and rows inserted or deleted elsewhere never shift a page's contents.
+ */
+@Repository
+public class KeysetRepository {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /**
+     * Reads one page.
+     *
+     * @param from   JPQL {@code FROM} clause naming the entity {@code e}, with any joins
+     * @param where  extra JPQL condition on {@code e}, or null
+     * @param params parameters of {@code where}
+     */
+    public <T> CursorPage<T> page(String from, String where, Map<String, Object> params,
+                                  PageOrder order, String cursor, int limit) {
+        return read("e", from, where, params, order, cursor, limit);
+    }
+
+    /**
+     * Reads one page of ids only, for callers that project the rows themselves; it reads
+     * just the id and sort key instead of hydrating entities that would be queried again.
+     */
+    public CursorPage<Long> pageIds(String from, String where, Map<String, Object> params,
+                                    PageOrder order, String cursor, int limit) {
+        return read("e.id", from, where, params, order, cursor, limit);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CursorPage<T> read(String item, String from, String where,
+                                   Map<String, Object> params, PageOrder order, String cursor,
+                                   int limit) {
+        PageCursor after = cursor != null ? PageCursor.decode(cursor) : null;
+        if (after != null && order.byName() && after.name() == null) {
+            throw new ValidationException("Page cursor does not match the requested sort");
+        }
+
+        List<String> conditions = new ArrayList<>();
+        if (where != null) {
+            conditions.add(where);
+        }
+        if (after != null) {
+            conditions.add(order.after());
+        }
+        String jpql = "SELECT " + item + ", e.id" + (order.byName() ? ", e.name" : "") + " FROM " + from
+                + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                + " ORDER BY " + order.orderBy();
+
+        TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
+        params.forEach(query::setParameter);
+        if (after != null) {
+            query.setParameter("afterId", after.id());
+            if (order.byName()) {
+                query.setParameter("afterName", after.name());
+            }
+        }
+        List<Object[]> rows = query.setMaxResults(limit + 1).getResultList();
+
+        int size = Math.min(rows.size(), limit);
+        List<T> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add((T) rows.get(i)[0]);
+        }
+        String next = null;
+        if (rows.size() > limit) {
+            Object[] last = rows.get(limit - 1);
+            next = new PageCursor((Long) last[1], order.byName() ? (String) last[2] : null)
+                    .encode();
+        }
+        return new CursorPage<>(items, next);
+    }
+}
@@ -0,0 +1,36 @@
+package idespring.lab4.repository;
+
+public enum PageOrder {
+    ID("e.id", "e.id > :afterId"),
+    NAME_ASC("e.name, e.id", "(e.name > :afterName OR (e.name = :afterName AND e.id > :afterId))"),
+    NAME_DESC("e.name DESC, e.id DESC",
+            "(e.name < :afterName OR (e.name = :afterName AND e.id < :afterId))");
+
+    private final String orderBy;
+    private final String after;
+
+    PageOrder(String orderBy, String after) {
+        this.orderBy = orderBy;
+        this.after = after;
+    }
+
+    public boolean byName() {
+        return this != ID;
+    }
+
+    String orderBy() {
+        return orderBy;
+    }
+
+    String after() {
+        return after;
+    }
+
+    /** Name order for a {@code sort} request parameter, id order when it is absent. */
+    public static PageOrder of(String sort) {
+        if (sort == null) {
+            return ID;
+        }
+        return "DESC".equalsIgnoreCase(sort) ? NAME_DESC : NAME_ASC;
+    }
+}
@@ -0,0 +1,142 @@
+package idespring.lab4.repository.markrepo;
+
+import idespring.lab4.dto.MarkBatchItem;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Set-based lookups and batched inserts for bulk mark uploads, kept on plain JDBC so a
+ * batch of thousands of marks costs a handful of statements instead of one per mark. Id
+ * sets travel as one bigint array parameter, so a lookup binds the same few parameters
+ * however many ids it carries.
+ */
+@Repository
+public class MarkBatchRepository {
+    private static final int BATCH_SIZE = 500;
+    private static final String SELECT_ROWS =
+            "SELECT id, studentid, subjectid, value FROM studentmanagement.marks";
+
+    private final JdbcTemplate jdbc;
+
+    @Autowired
+    public MarkBatchRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc.getJdbcTemplate();
+    }
+
+    public Set<Long> findExistingStudentIds(Collection<Long> ids) {
+        Set<Long> existing = new HashSet<>();
+        queryByIds("SELECT id FROM studentmanagement.students WHERE id = ANY(?)",
+                rs -> {
+                    existing.add(rs.getLong(1));
+                }, ids);
+        return existing;
+    }
+
+    public Set<Long> findExistingSubjectIds(Collection<Long> ids) {
+        Set<Long> existing = new HashSet<>();
+        queryByIds("SELECT id FROM studentmanagement.subjects WHERE id = ANY(?)",
+                rs -> {
+                    existing.add(rs.getLong(1));
+                }, ids);
+        return existing;
+    }
+
+    /** Subject ids each of the given students is enrolled in. */
+    public Map<Long, Set<Long>> findEnrollments(Collection<Long> studentIds) {
+        Map<Long, Set<Long>> enrollments = new HashMap<>();
+        queryByIds("SELECT studentid, subjectid FROM studentmanagement.student_subject "
+                        + "WHERE studentid = ANY(?)",
+                rs -> {
+                    enrollments.computeIfAbsent(rs.getLong(1), id -> new HashSet<>())
+                            .add(rs.getLong(2));
+                }, studentIds);
+        return enrollments;
+    }
+
+    /** Streams every mark row to {@code handler} without building entities. */
+    public void forEachMark(MarkRowHandler handler) {
+        jdbc.query(SELECT_ROWS, rs -> {
+            handler.row(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getInt(4));
+        });
+    }
+
+    /** Streams the mark rows of the given students and subjects to {@code handler}. */
+    public void forEachMarkOf(Collection<Long> studentIds, Collection<Long> subjectIds,
+                              MarkRowHandler handler) {
+        List<String> conditions = new ArrayList<>();
+        List<Collection<Long>> ids = new ArrayList<>();
+        if (!studentIds.isEmpty()) {
+            conditions.add("studentid = ANY(?)");
+            ids.add(studentIds);
+        }
+        if (!subjectIds.isEmpty()) {
+            conditions.add("subjectid = ANY(?)");
+            ids.add(subjectIds);
+        }
+        if (conditions.isEmpty()) {
+            return;
+        }
+        queryByIds(SELECT_ROWS + " WHERE " + String.join(" OR ", conditions), rs -> {
+            handler.row(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getInt(4));
+        }, ids.toArray(new Collection<?>[0]));
+    }
+
+    /**
+     * Deletes the student's marks of {@code value} in the named subject, or only mark
+     * {@code id} among them when given, and returns the ids deleted.
+     */
+    public List<Long> deleteMarks(long studentId, String subjectName, int value, Long id) {
+        return jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "DELETE FROM studentmanagement.marks WHERE studentid = ? AND value = ? "
+                            + "AND subjectid = (SELECT id FROM studentmanagement.subjects "
+                            + "WHERE name = ?) " + (id != null ? "AND id = ? " : "")
+                            + "RETURNING id");
+            ps.setLong(1, studentId);
+            ps.setInt(2, value);
+            ps.setString(3, subjectName);
+            if (id != null) {
+                ps.setLong(4, id);
+            }
+            return ps;
+        }, (rs, rowNum) -> rs.getLong(1));
+    }
+
+    public void insertAll(List<MarkBatchItem> marks) {
+        jdbc.batchUpdate(
+                "INSERT INTO studentmanagement.marks (value, studentid, subjectid) "
+                        + "VALUES (?, ?, ?)",
+                marks, BATCH_SIZE, (ps, mark) -> {
+                    ps.setInt(1, mark.value());
+                    ps.setLong(2, mark.studentId());
+                    ps.setLong(3, mark.subjectId());
+                });
+    }
+
+    /** Runs {@code sql} with each id collection bound as one bigint array parameter. */
+    private void queryByIds(String sql, RowCallbackHandler handler, Collection<?>... ids) {
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            for (int i = 0; i < ids.length; i++) {
+                ps.setArray(i + 1, con.createArrayOf("bigint", ids[i].toArray()));
+            }
+            return ps;
+        }, handler);
+    }
+
+    @FunctionalInterface
+    public interface MarkRowHandler {
+        void row(long id, long studentId, long subjectId, int value);
+    }
+}
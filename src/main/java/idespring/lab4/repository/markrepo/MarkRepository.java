@@ -1,54 +1,61 @@
 package idespring.lab4.repository.markrepo;
 
 import idespring.lab4.model.Mark;
-import idespring.lab4.model.Student;
-import idespring.lab4.model.Subject;
-import jakarta.transaction.Transactional;
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+import jakarta.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface MarkRepository extends JpaRepository<Mark, Long> {
 
-    @Query(value = "SELECT * FROM studentmanagement.marks WHERE studentid = :#{#student.id} "
-            + "AND subjectid = :#{#subject.id}", nativeQuery = true)
-    List<Mark> findByStudentAndSubject(@Param("student") Student student,
-                                       @Param("subject") Subject subject);
-
-    @Query(value = "SELECT * FROM studentmanagement.marks WHERE value = :value", nativeQuery = true)
-    List<Mark> findByValue(@Param("value") int value);
-
-    @Query(value = "SELECT AVG(value) FROM studentmanagement.marks "
-            + "WHERE studentid = :studentId", nativeQuery = true)
-    Double getAverageMarkByStudentId(@Param("studentId") Long studentId);
-
-    @Query(value = "SELECT AVG(value) FROM studentmanagement.marks "
-            + "WHERE subjectid = :subjectId", nativeQuery = true)
-    Double getAverageMarkBySubjectId(@Param("subjectId") Long subjectId);
-
-    @Query(value = "SELECT * FROM studentmanagement.marks WHERE "
-            + "studentid = :studentId", nativeQuery = true)
-    List<Mark> findByStudentId(@Param("studentId") Long studentId);
-
-    @Query(value = "SELECT * FROM studentmanagement.marks WHERE "
-            + "subjectid = :subjectId", nativeQuery = true)
-    List<Mark> findBySubjectId(@Param("subjectId") Long subjectId);
-
-    @Modifying
-    @Transactional
-    @Query(value = "DELETE FROM studentmanagement.marks "
-            + "WHERE studentid = :studentId "
-            + "AND (:id IS NULL OR id = :id) "
-            + "AND value = :markValue "
-            + "AND subjectid = (SELECT id FROM studentmanagement.subjects "
-            + "WHERE name = :subjectName)",
+    @Query(value = "SELECT studentid AS studentId, subjectid AS subjectId, value, "
+            + "COUNT(*) AS count FROM studentmanagement.marks "
+            + "GROUP BY GROUPING SETS ((studentid, value), (subjectid, value), (value))",
             nativeQuery = true)
-    int deleteMarkByStudentIdSubjectNameValueAndOptionalId(@Param("studentId") Long studentId,
-                                                           @Param("subjectName") String subjectName,
-                                                           @Param("markValue") int markValue,
-                                                           @Param("id") Long id);
+    List<MarkValueCount> getValueCountsByStudentAndSubject();
+
+    @Query(value = "SELECT NULL AS studentId, NULL AS subjectId, value, COUNT(*) AS count "
+            + "FROM studentmanagement.marks GROUP BY value", nativeQuery = true)
+    List<MarkValueCount> getValueCounts();
+
+    @Query(value = "SELECT studentid AS studentId, NULL AS subjectId, value, COUNT(*) AS count "
+            + "FROM studentmanagement.marks WHERE studentid IN (:studentIds) "
+            + "GROUP BY studentid, value", nativeQuery = true)
+    List<MarkValueCount> getValueCountsByStudentIds(
+            @Param("studentIds") Collection<Long> studentIds);
+
+    @Query(value = "SELECT NULL AS studentId, subjectid AS subjectId, value, COUNT(*) AS count "
+            + "FROM studentmanagement.marks WHERE subjectid IN (:subjectIds) "
+            + "GROUP BY subjectid, value", nativeQuery = true)
+    List<MarkValueCount> getValueCountsBySubjectIds(
+            @Param("subjectIds") Collection<Long> subjectIds);
+
+    @Query(value = "SELECT studentid AS studentId, SUM(value) AS sum, COUNT(*) AS count "
+            + "FROM studentmanagement.marks WHERE subjectid = :subjectId "
+            + "GROUP BY studentid", nativeQuery = true)
+    List<StudentMarkTotal> getStudentTotalsBySubjectId(@Param("subjectId") Long subjectId);
+
+    @Query(value = "SELECT s.id AS studentId, COALESCE(SUM(m.value), 0) AS sum, "
+            + "COUNT(m.id) AS count FROM studentmanagement.students s "
+            + "LEFT JOIN studentmanagement.marks m ON m.studentid = s.id "
+            + "WHERE s.groupid = :groupId GROUP BY s.id", nativeQuery = true)
+    List<StudentMarkTotal> getStudentTotalsByGroupId(@Param("groupId") Long groupId);
+
+    @QueryHints({
+        @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("SELECT m FROM Mark m ORDER BY m.id")
+    Stream<Mark> streamAll();
 }
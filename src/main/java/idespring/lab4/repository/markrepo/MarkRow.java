@@ -0,0 +1,5 @@
+package idespring.lab4.repository.markrepo;
+
+/** Scalar columns of a mark, with its associations as ids. */
+public record MarkRow(Long id, Long studentId, Long subjectId, int value) {
+}
@@ -0,0 +1,11 @@
+package idespring.lab4.repository.markrepo;
+
+public interface MarkValueCount {
+    Long getStudentId();
+
+    Long getSubjectId();
+
+    int getValue();
+
+    long getCount();
+}
@@ -0,0 +1,9 @@
+package idespring.lab4.repository.markrepo;
+
+public interface StudentMarkTotal {
+    Long getStudentId();
+
+    long getSum();
+
+    long getCount();
+}
@@ -0,0 +1,5 @@
+package idespring.lab4.repository.studentrepo;
+
+/** One subject a student is enrolled in. */
+public record EnrollmentRow(Long studentId, Long subjectId, String subjectName) {
+}
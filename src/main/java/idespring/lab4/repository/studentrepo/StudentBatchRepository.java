@@ -0,0 +1,69 @@
+package idespring.lab4.repository.studentrepo;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Set-based writes for subject links and group membership. The ids travel as one bigint
+ * array parameter, so linking or moving any number of students is a single statement.
+ */
+@Repository
+public class StudentBatchRepository {
+    private final JdbcTemplate jdbc;
+
+    @Autowired
+    public StudentBatchRepository(NamedParameterJdbcTemplate jdbc) {
+        this.jdbc = jdbc.getJdbcTemplate();
+    }
+
+    public int addSubjects(long studentId, Collection<Long> subjectIds) {
+        return jdbc.update(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO studentmanagement.student_subject (studentid, subjectid) "
+                            + "SELECT ?, unnest(?)");
+            ps.setLong(1, studentId);
+            ps.setArray(2, con.createArrayOf("bigint", subjectIds.toArray()));
+            return ps;
+        });
+    }
+
+    /**
+     * Puts the students that have no group yet into {@code groupId}. Returns the age of every
+     * moved student by id; students missing or already in a group are left out.
+     */
+    public Map<Long, Integer> assignGroup(long groupId, Collection<Long> studentIds) {
+        Map<Long, Integer> moved = new HashMap<>();
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "UPDATE studentmanagement.students SET groupid = ? "
+                            + "WHERE id = ANY(?) AND groupid IS NULL RETURNING id, age");
+            ps.setLong(1, groupId);
+            ps.setArray(2, con.createArrayOf("bigint", studentIds.toArray()));
+            return ps;
+        }, rs -> {
+            moved.put(rs.getLong(1), rs.getInt(2));
+        });
+        return moved;
+    }
+
+    /** Current group of each existing student; null for students without one. */
+    public Map<Long, Long> findGroupIds(Collection<Long> studentIds) {
+        Map<Long, Long> groups = new HashMap<>();
+        jdbc.query(con -> {
+            PreparedStatement ps = con.prepareStatement(
+                    "SELECT id, groupid FROM studentmanagement.students WHERE id = ANY(?)");
+            ps.setArray(1, con.createArrayOf("bigint", studentIds.toArray()));
+            return ps;
+        }, rs -> {
+            long groupId = rs.getLong(2);
+            groups.put(rs.getLong(1), rs.wasNull() ? null : groupId);
+        });
+        return groups;
+    }
+}
@@ -0,0 +1,105 @@
+package idespring.lab4.repository.studentrepo;
+
+import idespring.lab4.dto.StudentFilter;
+import jakarta.persistence.TypedQuery;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JPQL for each shape of {@link StudentFilter}: which criteria are present plus the sort.
+ * A shape is compiled once and its text reused, so Hibernate's query plan cache gets a hit
+ * for every later filter of the same shape; the values only ever travel as parameters.
+ */
+final class StudentQueryPlans {
+    private static final int MIN_AGE = 1;
+    private static final int MAX_AGE = 1 << 1;
+    private static final int GROUP = 1 << 2;
+    private static final int NAME = 1 << 3;
+    private static final int SUBJECT = 1 << 4;
+    private static final int DESCENDING = 1 << 5;
+    private static final int SORT_SHIFT = 6;
+
+    private static final ConcurrentHashMap<Integer, String> PLANS = new ConcurrentHashMap<>();
+
+    private StudentQueryPlans() {
+    }
+
+    static String jpql(StudentFilter filter) {
+        return PLANS.computeIfAbsent(shape(filter), StudentQueryPlans::compile);
+    }
+
+    static <T> TypedQuery<T> bind(TypedQuery<T> query, StudentFilter filter) {
+        if (filter.minAge() != null) {
+            query.setParameter("minAge", filter.minAge());
+        }
+        if (filter.maxAge() != null) {
+            query.setParameter("maxAge", filter.maxAge());
+        }
+        if (filter.groupId() != null) {
+            query.setParameter("groupId", filter.groupId());
+        }
+        if (filter.namePrefix() != null) {
+            query.setParameter("namePrefix", escapeLike(filter.namePrefix()) + "%");
+        }
+        if (filter.subjectId() != null) {
+            query.setParameter("subjectId", filter.subjectId());
+        }
+        if (filter.limit() != null) {
+            query.setMaxResults(filter.limit());
+        }
+        return query;
+    }
+
+    private static int shape(StudentFilter filter) {
+        int shape = filter.sort().ordinal() << SORT_SHIFT;
+        shape |= filter.minAge() != null ? MIN_AGE : 0;
+        shape |= filter.maxAge() != null ? MAX_AGE : 0;
+        shape |= filter.groupId() != null ? GROUP : 0;
+        shape |= filter.namePrefix() != null ? NAME : 0;
+        shape |= filter.subjectId() != null ? SUBJECT : 0;
+        shape |= filter.descending() ? DESCENDING : 0;
+        return shape;
+    }
+
+    private static String compile(int shape) {
+        StringBuilder jpql = new StringBuilder("SELECT new idespring.lab4.repository.studentrepo"
+                + ".StudentRow(s.id, s.name, s.age, g.id, g.name) FROM Student s "
+                + "LEFT JOIN s.group g");
+        if ((shape & SUBJECT) != 0) {
+            jpql.append(" JOIN s.subjects sub");
+        }
+        String and = " WHERE ";
+        if ((shape & MIN_AGE) != 0) {
+            jpql.append(and).append("s.age >= :minAge");
+            and = " AND ";
+        }
+        if ((shape & MAX_AGE) != 0) {
+            jpql.append(and).append("s.age <= :maxAge");
+            and = " AND ";
+        }
+        if ((shape & GROUP) != 0) {
+            jpql.append(and).append("g.id = :groupId");
+            and = " AND ";
+        }
+        if ((shape & NAME) != 0) {
+            jpql.append(and).append("LOWER(s.name) LIKE :namePrefix ESCAPE '\\'");
+            and = " AND ";
+        }
+        if ((shape & SUBJECT) != 0) {
+            jpql.append(and).append("sub.id = :subjectId");
+        }
+
+        String direction = (shape & DESCENDING) != 0 ? " DESC" : " ASC";
+        StudentFilter.Sort sort = StudentFilter.Sort.values()[shape >>> SORT_SHIFT];
+        jpql.append(" ORDER BY ");
+        switch (sort) {
+            case NAME -> jpql.append("s.name").append(direction).append(", ");
+            case AGE -> jpql.append("s.age").append(direction).append(", ");
+            default -> { }
+        }
+        return jpql.append("s.id").append(direction).toString();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
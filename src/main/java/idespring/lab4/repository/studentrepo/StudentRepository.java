@@ -1,12 +1,19 @@
 package idespring.lab4.repository.studentrepo;
 
 import idespring.lab4.model.Student;
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+import jakarta.persistence.QueryHint;
 import jakarta.transaction.Transactional;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -50,4 +57,36 @@ public interface StudentRepository extends JpaRepository<Student, Long>, Student
 
     @Query("SELECT s FROM Student s LEFT JOIN FETCH s.subjects WHERE s.id = :id")
     Optional<Student> findByIdWithSubjects(@Param("id") Long id);
-}
\ No newline at end of file
+
+    /** The student's report card as JSON, built by the database in a single statement. */
+    @Query(value = "SELECT json_build_object("
+            + "'studentId', s.id, 'name', s.name, 'age', s.age, "
+            + "'groupId', g.id, 'groupName', g.name, "
+            + "'average', t.average, 'markCount', t.count, "
+            + "'subjects', COALESCE((SELECT json_agg(json_build_object("
+            + "'subjectId', sub.id, 'name', sub.name, "
+            + "'marks', COALESCE(sm.marks, '[]'::json), 'average', sm.average) "
+            + "ORDER BY sub.name) "
+            + "FROM studentmanagement.subjects sub "
+            + "LEFT JOIN LATERAL (SELECT json_agg(m.value ORDER BY m.id) AS marks, "
+            + "AVG(m.value) AS average FROM studentmanagement.marks m "
+            + "WHERE m.studentid = s.id AND m.subjectid = sub.id) sm ON true "
+            + "WHERE sub.id IN (SELECT ss.subjectid FROM studentmanagement.student_subject ss "
+            + "WHERE ss.studentid = s.id UNION SELECT m.subjectid "
+            + "FROM studentmanagement.marks m WHERE m.studentid = s.id)), '[]'::json)"
+            + ")::text "
+            + "FROM studentmanagement.students s "
+            + "LEFT JOIN studentmanagement.groups g ON g.id = s.groupid "
+            + "LEFT JOIN LATERAL (SELECT AVG(m.value) AS average, COUNT(*) AS count "
+            + "FROM studentmanagement.marks m WHERE m.studentid = s.id) t ON true "
+            + "WHERE s.id = :id", nativeQuery = true)
+    Optional<String> getReportJson(@Param("id") long id);
+
+    @QueryHints({
+        @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("SELECT s FROM Student s ORDER BY s.id")
+    Stream<Student> streamAll();
+}
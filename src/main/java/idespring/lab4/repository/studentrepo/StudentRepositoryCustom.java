@@ -1,10 +1,35 @@
 package idespring.lab4.repository.studentrepo;
 
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.StudentFilter;
 import idespring.lab4.model.Student;
 import java.util.List;
 
+/**
+ * Read path for student lists. Students are assembled from scalar projections into
+ * detached entities with their group, subjects and marks filled in, so a list costs a
+ * fixed number of statements instead of one per student and association.
+ */
 public interface StudentRepositoryCustom {
-    List<Student> findByAgeAndSortByName(int age, String sort);
+    /** Students of the given age, or all, ordered by name when {@code sort} is set. */
+    default List<Student> findViews(Integer age, String sort) {
+        return search(new StudentFilter(age, age, null, null, null,
+                sort != null ? StudentFilter.Sort.NAME : StudentFilter.Sort.ID,
+                "DESC".equalsIgnoreCase(sort), null));
+    }
 
-    List<Student> sortByName(String sort);
+    /** Students matching a {@link StudentFilter#normalized() normalized} filter, in its order. */
+    List<Student> search(StudentFilter filter);
+
+    /** Students with the given ids, in the order of {@code ids}; missing ids are skipped. */
+    List<Student> findViewsByIds(List<Long> ids);
+
+    List<Student> findViewsByGroupId(Long groupId);
+
+    List<Student> findViewsBySubjectId(Long subjectId);
+
+    /** The views of a page of student ids, in page order. */
+    default CursorPage<Student> viewsOf(CursorPage<Long> ids) {
+        return new CursorPage<>(findViewsByIds(ids.items()), ids.next());
+    }
 }
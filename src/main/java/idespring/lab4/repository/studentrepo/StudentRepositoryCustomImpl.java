@@ -1,40 +1,119 @@
 package idespring.lab4.repository.studentrepo;
 
+import idespring.lab4.dto.StudentFilter;
+import idespring.lab4.model.Group;
+import idespring.lab4.model.Mark;
 import idespring.lab4.model.Student;
+import idespring.lab4.model.Subject;
+import idespring.lab4.repository.markrepo.MarkRow;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class StudentRepositoryCustomImpl implements StudentRepositoryCustom {
+    private static final int IN_CHUNK = 1000;
+    private static final String SELECT_ROWS = "SELECT new idespring.lab4.repository.studentrepo"
+            + ".StudentRow(s.id, s.name, s.age, g.id, g.name) FROM Student s LEFT JOIN s.group g ";
 
     @PersistenceContext
     private EntityManager em;
 
     @Override
-    public List<Student> sortByName(String sort) {
-        String orderBy = "ASC";
-        if ("DESC".equalsIgnoreCase(sort)) {
-            orderBy = "DESC";
+    public List<Student> search(StudentFilter filter) {
+        StudentFilter normalized = filter.normalized();
+        TypedQuery<StudentRow> query = em.createQuery(StudentQueryPlans.jpql(normalized),
+                StudentRow.class);
+        return assemble(StudentQueryPlans.bind(query, normalized).getResultList());
+    }
+
+    @Override
+    public List<Student> findViewsByIds(List<Long> ids) {
+        Map<Long, StudentRow> rows = new HashMap<>();
+        for (List<Long> chunk : chunks(ids)) {
+            for (StudentRow row : em.createQuery(SELECT_ROWS + "WHERE s.id IN :ids",
+                    StudentRow.class).setParameter("ids", chunk).getResultList()) {
+                rows.put(row.id(), row);
+            }
         }
+        List<StudentRow> ordered = new ArrayList<>(rows.size());
+        for (Long id : ids) {
+            StudentRow row = rows.get(id);
+            if (row != null) {
+                ordered.add(row);
+            }
+        }
+        return assemble(ordered);
+    }
 
-        String jpql = "SELECT s FROM Student s ORDER BY s.name " + orderBy;
-        return em.createQuery(jpql, Student.class).getResultList();
+    @Override
+    public List<Student> findViewsByGroupId(Long groupId) {
+        return search(new StudentFilter(null, null, groupId, null, null,
+                StudentFilter.Sort.ID, false, null));
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public List<Student> findByAgeAndSortByName(int age, String sort) {
+    public List<Student> findViewsBySubjectId(Long subjectId) {
+        return search(new StudentFilter(null, null, null, null, subjectId,
+                StudentFilter.Sort.ID, false, null));
+    }
 
-        String orderBy = "ASC";
-        if ("DESC".equalsIgnoreCase(sort)) {
-            orderBy = "DESC";
+    private List<Student> assemble(List<StudentRow> rows) {
+        Map<Long, Student> students = new LinkedHashMap<>();
+        Map<Long, Group> groups = new HashMap<>();
+        for (StudentRow row : rows) {
+            Group group = null;
+            if (row.groupId() != null) {
+                group = groups.computeIfAbsent(row.groupId(), id -> {
+                    Group loaded = new Group(id);
+                    loaded.setName(row.groupName());
+                    return loaded;
+                });
+            }
+            Student student = new Student(row.name(), row.age(), group, new HashSet<>());
+            student.setId(row.id());
+            students.put(row.id(), student);
         }
 
-        String sql = "SELECT * FROM studentmanagement.students WHERE age = :age ORDER BY name "
-                + orderBy;
+        Map<Long, Subject> subjects = new HashMap<>();
+        for (List<Long> chunk : chunks(new ArrayList<>(students.keySet()))) {
+            List<EnrollmentRow> enrollments = em.createQuery("SELECT new "
+                    + "idespring.lab4.repository.studentrepo.EnrollmentRow(s.id, sub.id, sub.name) "
+                    + "FROM Student s JOIN s.subjects sub WHERE s.id IN :ids",
+                    EnrollmentRow.class).setParameter("ids", chunk).getResultList();
+            for (EnrollmentRow enrollment : enrollments) {
+                Subject subject = subjects.computeIfAbsent(enrollment.subjectId(), id -> {
+                    Subject loaded = new Subject(id);
+                    loaded.setName(enrollment.subjectName());
+                    return loaded;
+                });
+                students.get(enrollment.studentId()).getSubjects().add(subject);
+            }
 
-        return em.createNativeQuery(sql, Student.class)
-                .setParameter("age", age)
-                .getResultList();
+            List<MarkRow> marks = em.createQuery("SELECT new "
+                    + "idespring.lab4.repository.markrepo.MarkRow(m.id, m.student.id, "
+                    + "m.subject.id, m.value) FROM Mark m WHERE m.student.id IN :ids",
+                    MarkRow.class).setParameter("ids", chunk).getResultList();
+            for (MarkRow row : marks) {
+                Mark mark = new Mark(row.value());
+                mark.setId(row.id());
+                mark.setSubjectId(row.subjectId());
+                students.get(row.studentId()).addMark(mark);
+            }
+        }
+        return new ArrayList<>(students.values());
+    }
+
+    private static List<List<Long>> chunks(List<Long> ids) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += IN_CHUNK) {
+            chunks.add(ids.subList(from, Math.min(from + IN_CHUNK, ids.size())));
+        }
+        return chunks;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,5 @@
+package idespring.lab4.repository.studentrepo;
+
+/** Scalar columns of a student and its group. */
+public record StudentRow(Long id, String name, int age, Long groupId, String groupName) {
+}
@@ -0,0 +1,139 @@
+package idespring.lab4.service.async;
+
+import idespring.lab4.exceptions.DeadlineExceededException;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs independent lookups of one request concurrently on a bounded executor. Lookups are
+ * forked in a {@link Scope} that carries a deadline; forks started from inside a lookup
+ * inherit the remaining time rather than starting a fresh one, a lookup whose deadline has
+ * passed before it starts is not run, and closing the scope cancels whatever is left. When
+ * the executor is saturated the lookup runs on the calling thread, so a busy instance
+ * degrades to sequential calls instead of queueing without bound.
+ */
+@Component
+public class FanOut {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutNanos;
+
+    @Autowired
+    public FanOut(@Value("${fanout.threads:16}") int threads,
+                  @Value("${fanout.queueCapacity:256}") int queueCapacity,
+                  @Value("${fanout.timeoutMillis:5000}") long timeoutMillis,
+                  @Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        ThreadFactory factory = virtual
+                ? Thread.ofVirtual().name("fan-out-", 0).factory()
+                : Thread.ofPlatform().daemon().name("fan-out-", 0).factory();
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), factory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /** Opens a scope whose deadline is the current one, if any, or the configured timeout. */
+    public Scope open() {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Long inherited = DEADLINE.get();
+        if (inherited != null && inherited - deadline < 0) {
+            deadline = inherited;
+        }
+        return new Scope(deadline);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public final class Scope implements AutoCloseable {
+        private final long deadline;
+        private final List<CompletableFuture<?>> forks = new ArrayList<>();
+
+        private Scope(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * Starts the lookup on the executor. A fork made from inside another lookup runs on
+         * the current thread, so the pool never waits on work queued behind itself.
+         */
+        public <T> CompletableFuture<T> fork(Supplier<T> lookup) {
+            CompletableFuture<T> future;
+            if (DEADLINE.get() != null) {
+                future = new CompletableFuture<>();
+                try {
+                    future.complete(run(lookup));
+                } catch (RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                }
+            } else {
+                future = CompletableFuture.supplyAsync(() -> run(lookup), executor);
+            }
+            forks.add(future);
+            return future;
+        }
+
+        /**
+         * Waits for the lookup until the scope's deadline. Its exception is rethrown as-is,
+         * as it would be had the lookup run on this thread.
+         */
+        public <T> T join(CompletableFuture<T> future) {
+            try {
+                return future.get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException("Lookup failed", e.getCause());
+            } catch (TimeoutException e) {
+                throw new DeadlineExceededException("Lookups did not finish in time", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeadlineExceededException("Interrupted while waiting for lookups", e);
+            }
+        }
+
+        private <T> T run(Supplier<T> lookup) {
+            Long previous = DEADLINE.get();
+            DEADLINE.set(deadline);
+            try {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw new DeadlineExceededException("Deadline passed before lookup start");
+                }
+                return lookup.get();
+            } finally {
+                if (previous != null) {
+                    DEADLINE.set(previous);
+                } else {
+                    DEADLINE.remove();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            for (CompletableFuture<?> fork : forks) {
+                fork.cancel(false);
+            }
+        }
+    }
+}
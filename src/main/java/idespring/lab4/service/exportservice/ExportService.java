@@ -0,0 +1,10 @@
+package idespring.lab4.service.exportservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface ExportService {
+    long exportMarks(ExportFormat format, OutputStream out) throws IOException;
+
+    long exportStudents(ExportFormat format, OutputStream out) throws IOException;
+}
@@ -0,0 +1,142 @@
+package idespring.lab4.service.exportservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import idespring.lab4.model.Mark;
+import idespring.lab4.model.Student;
+import idespring.lab4.repository.markrepo.MarkRepository;
+import idespring.lab4.repository.studentrepo.StudentRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes whole tables row by row from a database cursor. Each entity is detached once it is
+ * written and the persistence context is cleared periodically, so memory use does not grow
+ * with the number of rows exported.
+ */
+@Service
+public class ExportServiceImpl implements ExportService {
+    private static final Logger logger = LoggerFactory.getLogger(ExportServiceImpl.class);
+    private static final int CLEAR_EVERY = 1000;
+    private static final String[] MARK_COLUMNS = {"id", "value", "studentId", "subjectId"};
+    private static final String[] STUDENT_COLUMNS = {"id", "name", "age", "groupId"};
+
+    private final MarkRepository markRepository;
+    private final StudentRepository studentRepository;
+    private final ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    public ExportServiceImpl(MarkRepository markRepository,
+                             StudentRepository studentRepository,
+                             ObjectMapper objectMapper) {
+        this.markRepository = markRepository;
+        this.studentRepository = studentRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long exportMarks(ExportFormat format, OutputStream out) throws IOException {
+        try (Stream<Mark> marks = markRepository.streamAll()) {
+            return export("marks", marks, format, MARK_COLUMNS, mark -> new Object[] {
+                mark.getId(), mark.getValue(), mark.getStudent().getId(), mark.getSubjectId()
+            }, out);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long exportStudents(ExportFormat format, OutputStream out) throws IOException {
+        try (Stream<Student> students = studentRepository.streamAll()) {
+            return export("students", students, format, STUDENT_COLUMNS, student -> new Object[] {
+                student.getId(), student.getName(), student.getAge(),
+                student.getGroup() != null ? student.getGroup().getId() : null
+            }, out);
+        }
+    }
+
+    private <T> long export(String table, Stream<T> rows, ExportFormat format, String[] columns,
+                            Function<T, Object[]> values, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (format == ExportFormat.CSV) {
+            writer.write(String.join(",", columns));
+            writer.write('\n');
+        }
+
+        long count = 0;
+        try {
+            Iterator<T> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                T row = iterator.next();
+                Object[] rowValues = values.apply(row);
+                if (format == ExportFormat.CSV) {
+                    writeCsv(rowValues, writer);
+                } else {
+                    writeJson(columns, rowValues, writer);
+                }
+                entityManager.detach(row);
+                if (++count % CLEAR_EVERY == 0) {
+                    entityManager.clear();
+                }
+            }
+            writer.flush();
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Export of {} aborted after {} rows: {}", table, count, e.getMessage());
+            throw e;
+        }
+
+        long end = System.nanoTime();
+        logger.info("Exported {} {} as {} in {} ms", count, table, format,
+                (end - start) / 1_000_000);
+        return count;
+    }
+
+    private void writeJson(String[] columns, Object[] values, Writer writer) throws IOException {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            row.put(columns[i], values[i]);
+        }
+        writer.write(objectMapper.writeValueAsString(row));
+        writer.write('\n');
+    }
+
+    private static void writeCsv(Object[] values, Writer writer) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (values[i] != null) {
+                writer.write(csvField(values[i].toString()));
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -1,11 +1,14 @@
 package idespring.lab4.service.groupservice;
 
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.model.Group;
 import java.util.List;
 
 public interface GroupService {
     List<Group> readGroups(String namePattern, String sort);
 
+    CursorPage<Group> readGroupsPage(String namePattern, String sort, String cursor, int limit);
+
     Group findById(Long id);
 
     Group findByName(String name);
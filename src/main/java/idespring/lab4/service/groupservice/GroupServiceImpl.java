@@ -1,18 +1,22 @@
 package idespring.lab4.service.groupservice;
 
-import idespring.lab4.config.CacheConfig;
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.exceptions.EntityNotFoundException;
 import idespring.lab4.model.Group;
 import idespring.lab4.model.Student;
+import idespring.lab4.repository.KeysetRepository;
+import idespring.lab4.repository.PageOrder;
 import idespring.lab4.repository.grouprepo.GroupRepository;
+import idespring.lab4.repository.studentrepo.StudentBatchRepository;
 import idespring.lab4.repository.studentrepo.StudentRepository;
 import idespring.lab4.service.studservice.StudentServiceImpl;
 import jakarta.annotation.PreDestroy;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,23 +26,26 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class GroupServiceImpl implements GroupService {
     private final GroupRepository groupRepository;
+    private final KeysetRepository keysetRepository;
     private final StudentRepository studentRepository;
-    private final CacheConfig<String, Object> cache;
+    private final StudentBatchRepository studentBatchRepository;
+    private final CacheRegions cache;
     private static final Logger logger = LoggerFactory.getLogger(GroupServiceImpl.class);
 
-    private static final String GROUP_ID_PREFIX = "group_";
-    private static final String GROUP_NAME_PREFIX = "name_";
+    private static final String GROUP_NAME_PREFIX = "group-name-";
     private static final String ALL_GROUPS_PREFIX = "allGroups";
 
-    private final Set<String> groupCacheKeys = ConcurrentHashMap.newKeySet();
     private final StudentServiceImpl studentServiceImpl;
 
     @Autowired
     public GroupServiceImpl(GroupRepository groupRepository, StudentRepository studentRepository,
-                            CacheConfig<String, Object> cache,
+                            KeysetRepository keysetRepository,
+                            StudentBatchRepository studentBatchRepository, CacheRegions cache,
                             StudentServiceImpl studentServiceImpl) {
         this.groupRepository = groupRepository;
+        this.keysetRepository = keysetRepository;
         this.studentRepository = studentRepository;
+        this.studentBatchRepository = studentBatchRepository;
         this.cache = cache;
         this.studentServiceImpl = studentServiceImpl;
     }
@@ -48,13 +55,13 @@ public class GroupServiceImpl implements GroupService {
         String cacheKey = ALL_GROUPS_PREFIX
                 + (namePattern != null ? namePattern : "") + (sort != null ? sort : "");
 
-        groupCacheKeys.add(cacheKey);
-
-        List<Group> cachedGroups = (List<Group>) cache.get(cacheKey);
-        if (cachedGroups != null) {
-            return cachedGroups;
-        }
+        @SuppressWarnings("unchecked")
+        List<Group> groups = (List<Group>) cache.queries().getOrLoad(cacheKey,
+                () -> loadGroups(namePattern, sort), CacheTags.GROUP_LISTS, CacheTags.GROUPS);
+        return groups;
+    }
 
+    private List<Group> loadGroups(String namePattern, String sort) {
         final long start = System.nanoTime();
         logger.info("Fetching groups with namePattern: {}, sort: {}", namePattern, sort);
 
@@ -67,57 +74,71 @@ public class GroupServiceImpl implements GroupService {
             groups = groupRepository.findAll();
         }
 
-        cache.put(cacheKey, groups);
         long end = System.nanoTime();
         logger.info("Execution time for readGroups: {} ms", (end - start) / 1_000_000);
         return groups;
     }
 
     @Override
-    public Group findById(Long id) {
-        String cacheKey = GROUP_ID_PREFIX + id;
-
-        groupCacheKeys.add(cacheKey);
-
-        Group cachedGroup = (Group) cache.get(cacheKey);
-        if (cachedGroup != null) {
-            return cachedGroup;
-        }
-
-        long start = System.nanoTime();
-        logger.info("Fetching group by ID: {}", id);
-
-        Group group = groupRepository.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException("Group not found with id: " + id));
+    public CursorPage<Group> readGroupsPage(String namePattern, String sort, String cursor,
+                                            int limit) {
+        PageOrder order = PageOrder.of(sort);
+        String cacheKey = "groups-page-" + namePattern + "-" + order + "-" + cursor + "-" + limit;
+
+        @SuppressWarnings("unchecked")
+        CursorPage<Group> page = (CursorPage<Group>) cache.queries().getOrLoad(cacheKey, () -> {
+            long start = System.nanoTime();
+            logger.info("Fetching groups page with namePattern: {}, sort: {}, limit: {}",
+                    namePattern, sort, limit);
+            CursorPage<Group> groups = keysetRepository.page("Group e",
+                    namePattern != null ? "e.name LIKE :pattern" : null,
+                    namePattern != null ? Map.of("pattern", "%" + namePattern + "%") : Map.of(),
+                    order, cursor, limit);
+            long end = System.nanoTime();
+            logger.info("Execution time for readGroupsPage: {} ms", (end - start) / 1_000_000);
+            return groups;
+        }, loaded -> {
+            CursorPage<Group> groups = (CursorPage<Group>) loaded;
+            return CacheTags.page(
+                    groups.items().stream().map(g -> CacheTags.group(g.getId())).toList(),
+                    groups.isLast() || order.byName() || namePattern != null,
+                    CacheTags.GROUP_LISTS, CacheTags.GROUPS);
+        });
+        return page;
+    }
 
-        cache.put(cacheKey, group);
-        long end = System.nanoTime();
-        logger.info("Execution time for findById: {} ms", (end - start) / 1_000_000);
-        return group;
+    @Override
+    public Group findById(Long id) {
+        return cache.groups().getOrLoad(id, () -> {
+            long start = System.nanoTime();
+            logger.info("Fetching group by ID: {}", id);
+
+            Group group = groupRepository.findById(id)
+                    .orElseThrow(() ->
+                            new EntityNotFoundException("Group not found with id: " + id));
+
+            long end = System.nanoTime();
+            logger.info("Execution time for findById: {} ms", (end - start) / 1_000_000);
+            return group;
+        }, CacheTags.group(id), CacheTags.GROUPS);
     }
 
     @Override
     public Group findByName(String name) {
         String cacheKey = GROUP_NAME_PREFIX + name;
 
-        groupCacheKeys.add(cacheKey);
-
-        Group cachedGroup = (Group) cache.get(cacheKey);
-        if (cachedGroup != null) {
-            return cachedGroup;
-        }
-
-        long start = System.nanoTime();
-        logger.info("Fetching group by name: {}", name);
+        return (Group) cache.queries().getOrLoad(cacheKey, () -> {
+            long start = System.nanoTime();
+            logger.info("Fetching group by name: {}", name);
 
-        Group group = groupRepository.findByName(name)
-                .orElseThrow(() ->
-                        new EntityNotFoundException("Group not found with name: " + name));
+            Group group = groupRepository.findByName(name)
+                    .orElseThrow(() ->
+                            new EntityNotFoundException("Group not found with name: " + name));
 
-        cache.put(cacheKey, group);
-        long end = System.nanoTime();
-        logger.info("Execution time for findByName: {} ms", (end - start) / 1_000_000);
-        return group;
+            long end = System.nanoTime();
+            logger.info("Execution time for findByName: {} ms", (end - start) / 1_000_000);
+            return group;
+        }, group -> new String[] {CacheTags.group(((Group) group).getId()), CacheTags.GROUPS});
     }
 
     @Override
@@ -126,50 +147,34 @@ public class GroupServiceImpl implements GroupService {
         final long start = System.nanoTime();
         logger.info("Adding new group: {}", name);
 
-        Group group = new Group(name);
+        Group savedGroup = groupRepository.save(new Group(name));
+        Map<Long, Integer> moved = Map.of();
         if (studentIds != null && !studentIds.isEmpty()) {
-            List<Long> longStudentIds = studentIds.stream().map(Long::valueOf).toList();
-            List<Student> students = studentRepository.findAllById(longStudentIds);
+            List<Long> longStudentIds = studentIds.stream().map(Long::valueOf).distinct().toList();
+            Map<Long, Integer> assigned =
+                    studentBatchRepository.assignGroup(savedGroup.getId(), longStudentIds);
 
-            if (students.size() != studentIds.size()) {
-                Set<Long> foundStudentIds =
-                        students.stream().map(Student::getId).collect(Collectors.toSet());
+            if (assigned.size() != longStudentIds.size()) {
+                // Rolled back by the exception; find out which ids the UPDATE skipped and why.
+                Map<Long, Long> groupIds = studentBatchRepository.findGroupIds(longStudentIds);
                 List<Long> nonExistentIds = longStudentIds.stream()
-                        .filter(id -> !foundStudentIds.contains(id)).toList();
-                throw new
-                        EntityNotFoundException("Студенты с ID " + nonExistentIds + " не найдены");
-            }
-
-            List<Student> studentsWithGroup = students.stream()
-                    .filter(student -> student.getGroup() != null)
-                    .toList();
-
-            if (!studentsWithGroup.isEmpty()) {
-                List<Long> studentsWithGroupIds = studentsWithGroup.stream()
-                        .map(Student::getId)
-                        .toList();
+                        .filter(id -> !groupIds.containsKey(id)).toList();
+                if (!nonExistentIds.isEmpty()) {
+                    throw new EntityNotFoundException(
+                            "Студенты с ID " + nonExistentIds + " не найдены");
+                }
+                List<Long> studentsWithGroupIds = longStudentIds.stream()
+                        .filter(id -> !assigned.containsKey(id)).toList();
                 throw new IllegalStateException("Студенты с ID " + studentsWithGroupIds
                         + " уже прикреплены к группе");
             }
-
-            for (Student student : students) {
-                student.setGroup(group);
-            }
-            group.setStudents(students);
+            moved = assigned;
         }
 
-        Group savedGroup = groupRepository.save(group);
-
-        String groupIdKey = GROUP_ID_PREFIX + savedGroup.getId();
-        String groupNameKey = GROUP_NAME_PREFIX + savedGroup.getName();
-
-        cache.put(groupIdKey, savedGroup);
-        cache.put(groupNameKey, savedGroup);
-
-        groupCacheKeys.add(groupIdKey);
-        groupCacheKeys.add(groupNameKey);
-
+        // Only invalidate, which waits for the commit: caching the group here would leave a
+        // phantom behind a rollback, and moved students must not be re-read before commit.
         invalidateGroupListCaches();
+        studentServiceImpl.clearCachesForStudents(moved);
 
         long end = System.nanoTime();
         logger.info("Execution time for addGroup: {} ms", (end - start) / 1_000_000);
@@ -196,27 +201,15 @@ public class GroupServiceImpl implements GroupService {
         Set<Student> students = studentRepository.findByGroupId(id);
 
         clearStudentsCache(students);
-
-        String groupIdKey = GROUP_ID_PREFIX + id;
-        String groupNameKey = GROUP_NAME_PREFIX + group.getName();
-
-        cache.remove(groupIdKey);
-        cache.remove(groupNameKey);
-
-        groupCacheKeys.remove(groupIdKey);
-        groupCacheKeys.remove(groupNameKey);
+        cache.invalidateTags(CacheTags.group(id));
 
         invalidateGroupListCaches();
 
         groupRepository.deleteById(id);
     }
 
-    private void clearStudentsCache(Set<Student> students) {
-        for (Student student : students) {
-            studentServiceImpl.clearStudentCache(student.getId());
-            studentServiceImpl.clearCachesByAge(student.getAge());
-            studentServiceImpl.clearListCaches();
-        }
+    private void clearStudentsCache(Collection<Student> students) {
+        studentServiceImpl.clearCachesForStudents(students);
         logger.info("Cleared student cache for {} students", students.size());
     }
 
@@ -231,15 +224,7 @@ public class GroupServiceImpl implements GroupService {
         Set<Student> students = studentRepository.findByGroupId(group.getId());
 
         clearStudentsCache(students);
-
-        String groupIdKey = GROUP_ID_PREFIX + group.getId();
-        String groupNameKey = GROUP_NAME_PREFIX + name;
-
-        cache.remove(groupIdKey);
-        cache.remove(groupNameKey);
-
-        groupCacheKeys.remove(groupIdKey);
-        groupCacheKeys.remove(groupNameKey);
+        cache.invalidateTags(CacheTags.group(group.getId()));
 
         invalidateGroupListCaches();
 
@@ -248,33 +233,17 @@ public class GroupServiceImpl implements GroupService {
 
     private void invalidateGroupListCaches() {
         logger.debug("Invalidating all group list caches");
-
-        Set<String> keysToRemove = new HashSet<>();
-
-        for (String key : groupCacheKeys) {
-            if (key.startsWith(ALL_GROUPS_PREFIX)) {
-                keysToRemove.add(key);
-                cache.remove(key);
-            }
-        }
-
-        groupCacheKeys.removeAll(keysToRemove);
+        cache.invalidateTags(CacheTags.GROUP_LISTS);
     }
 
     public void invalidateAllGroupCaches() {
         logger.info("Invalidating all group caches");
-
-        Set<String> keysToRemove = new HashSet<>(groupCacheKeys);
-
-        for (String key : keysToRemove) {
-            cache.remove(key);
-        }
-
-        groupCacheKeys.clear();
+        cache.invalidateTags(CacheTags.GROUPS);
     }
 
     @PreDestroy
     public void cleanup() {
-        invalidateAllGroupCaches();
+        // Peers keep serving their groups; only this instance's copies go away.
+        cache.invalidateLocally(CacheTags.GROUPS);
     }
-}
\ No newline at end of file
+}
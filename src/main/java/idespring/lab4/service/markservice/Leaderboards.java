@@ -0,0 +1,316 @@
+package idespring.lab4.service.markservice;
+
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.cache.bus.InvalidationBus;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.LeaderboardEntry;
+import idespring.lab4.repository.markrepo.MarkRepository;
+import idespring.lab4.repository.markrepo.StudentMarkTotal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Students ranked by average mark within each subject and each group. A ranking is built
+ * with one grouped query the first time it is read and then kept current by every mark
+ * write, so top-N and rank-of lookups never scan the marks table. Writes whose transaction
+ * is still open while a ranking is built are replayed onto it through a {@link SeedJournal}.
+ * Group membership changes and writes made by other instances drop the affected ranking
+ * until its next read.
+ */
+@Component
+public class Leaderboards {
+    private static final Logger logger = LoggerFactory.getLogger(Leaderboards.class);
+
+    private static final Comparator<Score> ORDER = (a, b) -> {
+        int byAverage = Long.compare(b.sum() * a.count(), a.sum() * b.count());
+        if (byAverage != 0) {
+            return byAverage;
+        }
+        int byCount = Long.compare(b.count(), a.count());
+        return byCount != 0 ? byCount : Long.compare(a.studentId(), b.studentId());
+    };
+
+    private final MarkRepository markRepository;
+    private final ConcurrentHashMap<Long, Ranking> bySubject = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Ranking> byGroup = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> groupOf = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock loadLock = new ReentrantReadWriteLock();
+    private final ReentrantLock buildLock = new ReentrantLock();
+    private final SeedJournal<Delta> journal = new SeedJournal<>(loadLock.readLock());
+    // Bumped when rankings are dropped, so a build that overlapped the drop is not kept.
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public Leaderboards(MarkRepository markRepository, CacheRegions cache, InvalidationBus bus) {
+        this.markRepository = markRepository;
+        cache.subscribe(this::onInvalidation);
+        bus.subscribe(this::onRemoteInvalidation);
+    }
+
+    public List<LeaderboardEntry> topBySubject(long subjectId, int limit) {
+        return subjectRanking(subjectId).top(limit);
+    }
+
+    public List<LeaderboardEntry> topByGroup(long groupId, int limit) {
+        return groupRanking(groupId).top(limit);
+    }
+
+    /** The student's place in the subject, or null if they have no marks in it. */
+    public LeaderboardEntry rankInSubject(long subjectId, long studentId) {
+        return subjectRanking(subjectId).entry(studentId);
+    }
+
+    /** The student's place in the group, or null if they are not a member with marks. */
+    public LeaderboardEntry rankInGroup(long groupId, long studentId) {
+        return groupRanking(groupId).entry(studentId);
+    }
+
+    /**
+     * Applies a mark write to the rankings built so far; it is undone if its transaction
+     * rolls back, and replayed onto rankings built while it is still open.
+     */
+    void apply(long studentId, long subjectId, int value, long count) {
+        Delta delta = new Delta(studentId, subjectId, value, count);
+        loadLock.readLock().lock();
+        try {
+            applyLive(delta);
+            journal.record(delta, () -> applyLive(delta.inverse()));
+        } finally {
+            loadLock.readLock().unlock();
+        }
+    }
+
+    private void applyLive(Delta delta) {
+        Ranking subject = bySubject.get(delta.subjectId());
+        if (subject != null) {
+            subject.add(delta);
+        }
+        Long groupId = groupOf.get(delta.studentId());
+        Ranking group = groupId != null ? byGroup.get(groupId) : null;
+        if (group != null) {
+            group.add(delta);
+        }
+    }
+
+    private Ranking subjectRanking(long subjectId) {
+        Ranking ranking = bySubject.get(subjectId);
+        return ranking != null ? ranking : build(subjectId, false,
+                () -> markRepository.getStudentTotalsBySubjectId(subjectId));
+    }
+
+    private Ranking groupRanking(long groupId) {
+        Ranking ranking = byGroup.get(groupId);
+        return ranking != null ? ranking : build(groupId, true,
+                () -> markRepository.getStudentTotalsByGroupId(groupId));
+    }
+
+    /**
+     * Builds a ranking from {@code query} outside the lock, replays the writes that raced
+     * it and publishes it. A ranking whose snapshot cannot be settled, because a write
+     * committed or rankings were dropped while the query ran, answers this read only.
+     */
+    private Ranking build(long id, boolean group, Supplier<List<StudentMarkTotal>> query) {
+        ConcurrentHashMap<Long, Ranking> rankings = group ? byGroup : bySubject;
+        buildLock.lock();
+        try {
+            Ranking ranking = rankings.get(id);
+            if (ranking != null) {
+                return ranking;
+            }
+            long start = System.nanoTime();
+            long builtFor = generation.get();
+            SeedJournal.Seed<Delta> seed = journal.begin();
+            List<StudentMarkTotal> totals;
+            try {
+                totals = query.get();
+            } catch (RuntimeException e) {
+                journal.cancel(seed);
+                throw e;
+            }
+            seed.queried();
+
+            Ranking built = new Ranking();
+            Set<Long> members = new HashSet<>();
+            for (StudentMarkTotal total : totals) {
+                members.add(total.getStudentId());
+                built.put(total.getStudentId(), total.getSum(), total.getCount());
+            }
+            boolean[] settled = {true};
+            loadLock.writeLock().lock();
+            try {
+                journal.finish(seed, (delta, visibility) -> {
+                    boolean affects = group
+                            ? members.contains(delta.studentId())
+                            : delta.subjectId() == id;
+                    if (!affects) {
+                        return;
+                    }
+                    if (visibility == SeedJournal.Visibility.AFTER_SNAPSHOT) {
+                        built.add(delta);
+                    } else if (visibility == SeedJournal.Visibility.UNKNOWN) {
+                        settled[0] = false;
+                    }
+                });
+                if (settled[0] && generation.get() == builtFor) {
+                    rankings.put(id, built);
+                    if (group) {
+                        members.forEach(studentId -> groupOf.put(studentId, id));
+                    }
+                }
+            } finally {
+                loadLock.writeLock().unlock();
+            }
+
+            long end = System.nanoTime();
+            logger.info("Built leaderboard for {} {} with {} students in {} ms",
+                    group ? "group" : "subject", id, built.size(), (end - start) / 1_000_000);
+            return built;
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private void dropGroup(Long groupId) {
+        generation.incrementAndGet();
+        byGroup.remove(groupId);
+        groupOf.values().removeIf(groupId::equals);
+    }
+
+    private void onInvalidation(String[] tags) {
+        for (String tag : tags) {
+            if (CacheTags.MARKS.equals(tag)) {
+                generation.incrementAndGet();
+                bySubject.clear();
+                byGroup.clear();
+                groupOf.clear();
+            } else if (CacheTags.GROUPS.equals(tag)) {
+                generation.incrementAndGet();
+                byGroup.clear();
+                groupOf.clear();
+            } else {
+                Long groupId = CacheTags.groupOf(tag);
+                if (groupId != null) {
+                    dropGroup(groupId);
+                }
+            }
+        }
+    }
+
+    private void onRemoteInvalidation(String[] tags) {
+        for (String tag : tags) {
+            Long subjectId = CacheTags.subjectOfMarks(tag);
+            if (subjectId != null) {
+                generation.incrementAndGet();
+                bySubject.remove(subjectId);
+            }
+            Long studentId = CacheTags.studentOfMarks(tag);
+            if (studentId != null) {
+                // The student's group may be building right now and not be mapped yet.
+                generation.incrementAndGet();
+                Long groupId = groupOf.get(studentId);
+                if (groupId != null) {
+                    dropGroup(groupId);
+                }
+            }
+        }
+    }
+
+    private record Score(long studentId, long sum, long count) {
+    }
+
+    private record Delta(long studentId, long subjectId, int value, long count) {
+        Delta inverse() {
+            return new Delta(studentId, subjectId, value, -count);
+        }
+    }
+
+    private static final class Ranking {
+        // A lock rather than monitors: request threads may be virtual, and a contended
+        // monitor would hold their carrier.
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Long, Score> scores = new HashMap<>();
+        private final RankTree<Score> tree = new RankTree<>(ORDER);
+
+        int size() {
+            lock.lock();
+            try {
+                return scores.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(long studentId, long sum, long count) {
+            lock.lock();
+            try {
+                Score previous = scores.remove(studentId);
+                if (previous != null) {
+                    tree.remove(previous);
+                }
+                if (count > 0) {
+                    Score score = new Score(studentId, sum, count);
+                    scores.put(studentId, score);
+                    tree.insert(score);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void add(Delta delta) {
+            lock.lock();
+            try {
+                Score current = scores.get(delta.studentId());
+                long sum = current != null ? current.sum() : 0;
+                long count = current != null ? current.count() : 0;
+                put(delta.studentId(), Math.max(0, sum + delta.value() * delta.count()),
+                        Math.max(0, count + delta.count()));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<LeaderboardEntry> top(int limit) {
+            lock.lock();
+            try {
+                List<Score> first = tree.first(limit);
+                List<LeaderboardEntry> entries = new ArrayList<>(first.size());
+                for (int i = 0; i < first.size(); i++) {
+                    entries.add(toEntry(i + 1, first.get(i)));
+                }
+                return entries;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        LeaderboardEntry entry(long studentId) {
+            lock.lock();
+            try {
+                Score score = scores.get(studentId);
+                return score != null ? toEntry(tree.rankOf(score) + 1, score) : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static LeaderboardEntry toEntry(int rank, Score score) {
+            return new LeaderboardEntry(rank, score.studentId(),
+                    (double) score.sum() / score.count(), score.count());
+        }
+    }
+}
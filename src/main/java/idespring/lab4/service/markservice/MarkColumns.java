@@ -0,0 +1,357 @@
+package idespring.lab4.service.markservice;
+
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.cache.bus.InvalidationBus;
+import idespring.lab4.model.Mark;
+import idespring.lab4.repository.markrepo.MarkBatchRepository;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Columnar copy of the marks table: parallel arrays of id, student id, subject id and value.
+ * Lookups by value, student and subject scan the columns instead of querying and hydrating
+ * entities. Kept current by the mark writes like {@link MarkStatistics}; writes whose ids
+ * are not known here, and writes made by other instances, mark the affected students or
+ * subjects stale so their rows are reloaded on next read. Loads and reloads query into a
+ * separate block and swap it in, replaying the writes that raced with the query.
+ */
+@Component
+public class MarkColumns {
+    private static final Logger logger = LoggerFactory.getLogger(MarkColumns.class);
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final MarkBatchRepository markBatchRepository;
+    private final MarkScan scan;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final SeedJournal<Change> journal = new SeedJournal<>(lock.writeLock());
+    private final Set<Long> staleStudents = ConcurrentHashMap.newKeySet();
+    private final Set<Long> staleSubjects = ConcurrentHashMap.newKeySet();
+    private volatile boolean loaded;
+    private Columns columns = new Columns();
+
+    @Autowired
+    public MarkColumns(MarkBatchRepository markBatchRepository, InvalidationBus bus,
+                       @Value("${marks.columns.vector:true}") boolean vector) {
+        this.markBatchRepository = markBatchRepository;
+        this.scan = MarkScan.create(vector);
+        bus.subscribe(this::onRemoteInvalidation);
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            load();
+        } catch (RuntimeException e) {
+            logger.warn("Mark columns not loaded at startup, will retry on first read: {}",
+                    e.getMessage());
+        }
+    }
+
+    public void load() {
+        loadLock.lock();
+        try {
+            long start = System.nanoTime();
+            staleStudents.clear();
+            staleSubjects.clear();
+            SeedJournal.Seed<Change> seed = journal.begin();
+            Columns loading = new Columns();
+            try {
+                markBatchRepository.forEachMark(loading::append);
+            } catch (RuntimeException e) {
+                journal.cancel(seed);
+                throw e;
+            }
+            seed.queried();
+
+            lock.writeLock().lock();
+            try {
+                journal.finish(seed, (change, visibility) -> replay(loading, change));
+                columns = loading;
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            long end = System.nanoTime();
+            logger.info("Loaded {} marks into columns in {} ms", loading.size,
+                    (end - start) / 1_000_000);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    public List<Mark> findByValue(int value) {
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            return List.of();
+        }
+        return select((c, out) -> scan.selectEqual(c.values, c.size, (byte) value, out));
+    }
+
+    /** Marks of the student, the subject, both, or all marks when both are null. */
+    public List<Mark> find(Long studentId, Long subjectId) {
+        if (studentId != null && subjectId != null) {
+            return select((c, out) -> scan.selectEqual(c.studentIds, c.subjectIds, c.size,
+                    studentId, subjectId, out));
+        } else if (studentId != null) {
+            return select((c, out) -> scan.selectEqual(c.studentIds, c.size, studentId, out));
+        } else if (subjectId != null) {
+            return select((c, out) -> scan.selectEqual(c.subjectIds, c.size, subjectId, out));
+        }
+        return select((c, out) -> {
+            for (int i = 0; i < c.size; i++) {
+                out.add(i);
+            }
+        });
+    }
+
+    public void added(long id, long studentId, long subjectId, int value) {
+        change(new Change(id, studentId, subjectId, value, true));
+    }
+
+    public void removed(Mark mark) {
+        change(new Change(mark.getId(), mark.getStudent().getId(), mark.getSubjectId(),
+                mark.getValue(), false));
+    }
+
+    /** Records marks deleted along with their student or subject. */
+    public void removedAll(Collection<Mark> marks) {
+        for (Mark mark : marks) {
+            removed(mark);
+        }
+    }
+
+    /** Reloads the students' rows once the current transaction has finished. */
+    public void changed(Collection<Long> studentIds) {
+        Set<Long> changed = new HashSet<>(studentIds);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            staleStudents.addAll(changed);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        staleStudents.addAll(changed);
+                    }
+                });
+    }
+
+    private interface Filter {
+        void select(Columns columns, MarkScan.Positions out);
+    }
+
+    private List<Mark> select(Filter filter) {
+        ensureFresh();
+        lock.readLock().lock();
+        try {
+            long start = System.nanoTime();
+            Columns c = columns;
+            MarkScan.Positions positions = new MarkScan.Positions();
+            filter.select(c, positions);
+            List<Mark> marks = new ArrayList<>(positions.size());
+            for (int i = 0; i < positions.size(); i++) {
+                marks.add(c.toMark(positions.get(i)));
+            }
+            long end = System.nanoTime();
+            logger.debug("Selected {} of {} marks from columns in {} us",
+                    marks.size(), c.size, (end - start) / 1_000);
+            return marks;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void change(Change change) {
+        lock.writeLock().lock();
+        try {
+            if (change.added()) {
+                columns.append(change.id(), change.studentId(), change.subjectId(),
+                        change.value());
+            } else {
+                removeId(columns, change.id());
+            }
+            journal.record(change, () -> replay(columns, change.inverse()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Applies a change whether or not the block already reflects it. */
+    private void replay(Columns target, Change change) {
+        removeId(target, change.id());
+        if (change.added()) {
+            target.append(change.id(), change.studentId(), change.subjectId(), change.value());
+        }
+    }
+
+    private void removeId(Columns target, long id) {
+        MarkScan.Positions positions = new MarkScan.Positions();
+        scan.selectEqual(target.ids, target.size, id, positions);
+        target.removeAll(positions);
+    }
+
+    private void ensureFresh() {
+        if (!loaded) {
+            loadLock.lock();
+            try {
+                if (!loaded) {
+                    load();
+                }
+            } finally {
+                loadLock.unlock();
+            }
+        }
+        if (staleStudents.isEmpty() && staleSubjects.isEmpty()) {
+            return;
+        }
+        loadLock.lock();
+        try {
+            List<Long> students = drain(staleStudents);
+            List<Long> subjects = drain(staleSubjects);
+            if (students.isEmpty() && subjects.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            SeedJournal.Seed<Change> seed = journal.begin();
+            Columns reloaded = new Columns();
+            try {
+                markBatchRepository.forEachMarkOf(students, subjects, reloaded::append);
+            } catch (RuntimeException e) {
+                journal.cancel(seed);
+                staleStudents.addAll(students);
+                staleSubjects.addAll(subjects);
+                throw e;
+            }
+            seed.queried();
+
+            lock.writeLock().lock();
+            try {
+                Columns c = columns;
+                MarkScan.Positions positions = new MarkScan.Positions();
+                for (Long studentId : students) {
+                    scan.selectEqual(c.studentIds, c.size, studentId, positions);
+                }
+                for (Long subjectId : subjects) {
+                    scan.selectEqual(c.subjectIds, c.size, subjectId, positions);
+                }
+                c.removeAll(sorted(positions));
+                for (int i = 0; i < reloaded.size; i++) {
+                    c.append(reloaded.ids[i], reloaded.studentIds[i], reloaded.subjectIds[i],
+                            reloaded.values[i]);
+                }
+                journal.finish(seed, (change, visibility) -> replay(c, change));
+            } finally {
+                lock.writeLock().unlock();
+            }
+            long end = System.nanoTime();
+            logger.info("Reloaded mark columns for {} students and {} subjects in {} ms",
+                    students.size(), subjects.size(), (end - start) / 1_000_000);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private static List<Long> drain(Set<Long> stale) {
+        List<Long> drained = new ArrayList<>();
+        for (Long id : stale) {
+            if (stale.remove(id)) {
+                drained.add(id);
+            }
+        }
+        return drained;
+    }
+
+    /** Positions from several scans in ascending order, without duplicates. */
+    private static MarkScan.Positions sorted(MarkScan.Positions positions) {
+        int[] all = new int[positions.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = positions.get(i);
+        }
+        Arrays.sort(all);
+        MarkScan.Positions result = new MarkScan.Positions();
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                result.add(all[i]);
+            }
+        }
+        return result;
+    }
+
+    private void onRemoteInvalidation(String[] tags) {
+        for (String tag : tags) {
+            Long studentId = CacheTags.studentOfMarks(tag);
+            if (studentId != null) {
+                staleStudents.add(studentId);
+            }
+            Long subjectId = CacheTags.subjectOfMarks(tag);
+            if (subjectId != null) {
+                staleSubjects.add(subjectId);
+            }
+        }
+    }
+
+    private record Change(long id, long studentId, long subjectId, int value, boolean added) {
+        Change inverse() {
+            return new Change(id, studentId, subjectId, value, !added);
+        }
+    }
+
+    private static final class Columns {
+        long[] ids = new long[INITIAL_CAPACITY];
+        long[] studentIds = new long[INITIAL_CAPACITY];
+        long[] subjectIds = new long[INITIAL_CAPACITY];
+        byte[] values = new byte[INITIAL_CAPACITY];
+        int size;
+
+        void append(long id, long studentId, long subjectId, int value) {
+            if (size == ids.length) {
+                int capacity = size + (size >> 1);
+                ids = Arrays.copyOf(ids, capacity);
+                studentIds = Arrays.copyOf(studentIds, capacity);
+                subjectIds = Arrays.copyOf(subjectIds, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            ids[size] = id;
+            studentIds[size] = studentId;
+            subjectIds[size] = subjectId;
+            values[size] = (byte) value;
+            size++;
+        }
+
+        void removeAll(MarkScan.Positions positions) {
+            // Positions come out ascending; filling each hole from the tail, last first,
+            // never moves a row that is still waiting to be removed.
+            for (int i = positions.size() - 1; i >= 0; i--) {
+                int position = positions.get(i);
+                int last = --size;
+                ids[position] = ids[last];
+                studentIds[position] = studentIds[last];
+                subjectIds[position] = subjectIds[last];
+                values[position] = values[last];
+            }
+        }
+
+        Mark toMark(int position) {
+            Mark mark = new Mark(values[position]);
+            mark.setId(ids[position]);
+            mark.setStudentId(studentIds[position]);
+            mark.setSubjectId(subjectIds[position]);
+            return mark;
+        }
+    }
+}
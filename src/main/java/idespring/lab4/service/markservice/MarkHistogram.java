@@ -0,0 +1,66 @@
+package idespring.lab4.service.markservice;
+
+/**
+ * Immutable count of marks per value. Marks are bounded 1..10, so sums, averages and
+ * percentiles are computed from eleven counters instead of the rows themselves.
+ */
+public final class MarkHistogram {
+    public static final int MIN_VALUE = 1;
+    public static final int MAX_VALUE = 10;
+    public static final MarkHistogram EMPTY = new MarkHistogram(new long[MAX_VALUE + 1]);
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+
+    private MarkHistogram(long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        long weighted = 0;
+        for (int value = MIN_VALUE; value <= MAX_VALUE; value++) {
+            total += counts[value];
+            weighted += value * counts[value];
+        }
+        this.count = total;
+        this.sum = weighted;
+    }
+
+    /** Histogram of {@code counts} indexed by mark value; null if it holds no marks. */
+    public static MarkHistogram of(long[] counts) {
+        MarkHistogram histogram = new MarkHistogram(counts.clone());
+        return histogram.count > 0 ? histogram : null;
+    }
+
+    /** Returns a copy with {@code delta} marks of {@code value} added, or null if none remain. */
+    public MarkHistogram plus(int value, long delta) {
+        long[] updated = counts.clone();
+        updated[value] = Math.max(0, updated[value] + delta);
+        MarkHistogram histogram = new MarkHistogram(updated);
+        return histogram.count > 0 ? histogram : null;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long count(int value) {
+        return counts[value];
+    }
+
+    public double average() {
+        return (double) sum / count;
+    }
+
+    /** Nearest-rank percentile, {@code 0 < percentile <= 100}. */
+    public int percentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulative = 0;
+        for (int value = MIN_VALUE; value <= MAX_VALUE; value++) {
+            cumulative += counts[value];
+            if (cumulative >= rank) {
+                return value;
+            }
+        }
+        return MAX_VALUE;
+    }
+}
@@ -0,0 +1,66 @@
+package idespring.lab4.service.markservice;
+
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Equality filters over the primitive columns of {@link MarkColumns}. Each filter appends
+ * the positions below {@code size} whose column matches the key. The vector implementation
+ * is only compiled by the {@code vector} Maven profile, which adds the incubator module at
+ * compile and run time; without it, or without the module at runtime, the scalar loops are
+ * used.
+ */
+interface MarkScan {
+    void selectEqual(byte[] column, int size, byte key, Positions out);
+
+    void selectEqual(long[] column, int size, long key, Positions out);
+
+    void selectEqual(long[] first, long[] second, int size, long firstKey, long secondKey,
+                     Positions out);
+
+    static MarkScan create(boolean vector) {
+        Logger logger = LoggerFactory.getLogger(MarkScan.class);
+        if (vector && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                MarkScan scan = (MarkScan) Class.forName(MarkScan.class.getPackageName()
+                        + ".VectorMarkScan").getDeclaredConstructor().newInstance();
+                logger.info("Mark scans use {}", scan);
+                return scan;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.warn("Vector API unavailable, mark scans fall back to scalar loops: {}",
+                        e.getMessage());
+            }
+        }
+        return new ScalarMarkScan();
+    }
+
+    /** Growable list of matching row positions. */
+    final class Positions {
+        private int[] items = new int[16];
+        private int size;
+
+        void add(int position) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = position;
+        }
+
+        /** Adds every set bit of {@code mask} as an offset from {@code base}. */
+        void addBits(int base, long mask) {
+            while (mask != 0) {
+                add(base + Long.numberOfTrailingZeros(mask));
+                mask &= mask - 1;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            return items[index];
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package idespring.lab4.service.markservice;
 
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.LeaderboardEntry;
+import idespring.lab4.dto.MarkBatchItem;
+import idespring.lab4.dto.MarkBatchResult;
+import idespring.lab4.dto.MarkDistribution;
 import idespring.lab4.model.Mark;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface MarkService {
     List<Mark> readMarks(Long studentId, Long subjectId);
 
+    CursorPage<Mark> readMarksPage(Long studentId, Long subjectId, String cursor, int limit);
+
     List<Mark> findByValue(int value);
 
     void deleteMarkSpecific(Long studentId, String subjectName, int markValue, Long id);
@@ -14,7 +23,27 @@ public interface MarkService {
 
     Double getAverageMarkBySubjectId(Long subjectId);
 
+    Map<Long, Double> getAverageMarksByStudentIds(Collection<Long> studentIds);
+
+    Map<Long, Double> getAverageMarksBySubjectIds(Collection<Long> subjectIds);
+
+    MarkDistribution getDistribution(List<Integer> percentiles);
+
+    MarkDistribution getDistributionByStudentId(Long studentId, List<Integer> percentiles);
+
+    MarkDistribution getDistributionBySubjectId(Long subjectId, List<Integer> percentiles);
+
+    List<LeaderboardEntry> getSubjectLeaderboard(Long subjectId, int limit);
+
+    List<LeaderboardEntry> getGroupLeaderboard(Long groupId, int limit);
+
+    LeaderboardEntry getSubjectRank(Long subjectId, Long studentId);
+
+    LeaderboardEntry getGroupRank(Long groupId, Long studentId);
+
     Mark addMark(Mark mark);
 
+    MarkBatchResult addMarks(List<MarkBatchItem> marks);
+
     void deleteMark(Long id);
 }
\ No newline at end of file
@@ -1,122 +1,261 @@
 package idespring.lab4.service.markservice;
 
-import idespring.lab4.config.CacheConfig;
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.cache.LongPair;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.LeaderboardEntry;
+import idespring.lab4.dto.MarkBatchItem;
+import idespring.lab4.dto.MarkBatchResult;
+import idespring.lab4.dto.MarkDistribution;
 import idespring.lab4.exceptions.EntityNotFoundException;
 import idespring.lab4.exceptions.SubjectNotAssignedException;
 import idespring.lab4.model.Mark;
-import idespring.lab4.model.Student;
 import idespring.lab4.model.Subject;
+import idespring.lab4.repository.KeysetRepository;
+import idespring.lab4.repository.PageOrder;
+import idespring.lab4.repository.markrepo.MarkBatchRepository;
 import idespring.lab4.repository.markrepo.MarkRepository;
 import idespring.lab4.repository.studentrepo.StudentRepository;
 import idespring.lab4.repository.subjectrepo.SubjectRepository;
+import idespring.lab4.service.async.FanOut;
 import idespring.lab4.service.studentsubjserv.StudentSubjectService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @Service
 public class MarkServiceImpl implements MarkService {
     private final MarkRepository markRepository;
+    private final KeysetRepository keysetRepository;
     private final StudentRepository studentRepository;
     private final SubjectRepository subjectRepository;
     private final StudentSubjectService studentSubjectService;
-    private final CacheConfig<String, Object> cache;
+    private final MarkBatchRepository markBatchRepository;
+    private final MarkStatistics markStatistics;
+    private final MarkColumns markColumns;
+    private final Leaderboards leaderboards;
+    private final CacheRegions cache;
+    private final FanOut fanOut;
+    private final TransactionTemplate transactionTemplate;
     private static final Logger logger = LoggerFactory.getLogger(MarkServiceImpl.class);
 
+    private static final long ALL = 0L;
+
     @Autowired
     public MarkServiceImpl(MarkRepository markRepository,
+                           KeysetRepository keysetRepository,
                            StudentRepository studentRepository,
                            SubjectRepository subjectRepository,
                            StudentSubjectService studentSubjectService,
-                           CacheConfig<String, Object> cache) {
+                           MarkBatchRepository markBatchRepository,
+                           MarkStatistics markStatistics,
+                           MarkColumns markColumns,
+                           Leaderboards leaderboards,
+                           CacheRegions cache,
+                           FanOut fanOut,
+                           TransactionTemplate transactionTemplate) {
         this.markRepository = markRepository;
+        this.keysetRepository = keysetRepository;
         this.studentRepository = studentRepository;
         this.subjectRepository = subjectRepository;
         this.studentSubjectService = studentSubjectService;
+        this.markBatchRepository = markBatchRepository;
+        this.markStatistics = markStatistics;
+        this.markColumns = markColumns;
+        this.leaderboards = leaderboards;
         this.cache = cache;
+        this.fanOut = fanOut;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @Override
     public List<Mark> readMarks(Long studentId, Long subjectId) {
-        boolean hasSubject = studentSubjectService.getSubjectsByStudent(studentId)
-                .stream().anyMatch(s ->
-                        s.getId().equals(subjectId));
-        if (!hasSubject) {
-            throw new SubjectNotAssignedException("Student with ID " + studentId
-                    + " does not have subject with ID " + subjectId);
-        }
+        requireMarksFilter(studentId, subjectId);
+
+        LongPair cacheKey = new LongPair(studentId != null ? studentId : ALL,
+                subjectId != null ? subjectId : ALL);
+        return cache.marks().getOrLoad(cacheKey, () -> loadMarks(studentId, subjectId),
+                CacheTags.marks(studentId, subjectId), CacheTags.MARKS);
+    }
 
-        String cacheKey = "marks-" + (studentId != null ? studentId : "all")
-                + "-" + subjectId;
-        List<Mark> cachedMarks = (List<Mark>) cache.get(cacheKey);
-        if (cachedMarks != null) {
-            return cachedMarks;
+    /**
+     * The enrollment and existence checks of a marks read, run beside each other in the
+     * request; cached loaders stay free of request state, since refresh-ahead reruns them.
+     */
+    private void requireMarksFilter(Long studentId, Long subjectId) {
+        try (FanOut.Scope scope = fanOut.open()) {
+            CompletableFuture<List<Subject>> subjects =
+                    scope.fork(() -> studentSubjectService.getSubjectsByStudent(studentId));
+            boolean both = studentId != null && subjectId != null;
+            CompletableFuture<Boolean> student = both
+                    ? scope.fork(() -> studentRepository.existsById(studentId)) : null;
+            CompletableFuture<Boolean> subject = both
+                    ? scope.fork(() -> subjectRepository.existsById(subjectId)) : null;
+
+            boolean hasSubject = scope.join(subjects)
+                    .stream().anyMatch(s ->
+                            s.getId().equals(subjectId));
+            if (!hasSubject) {
+                throw new SubjectNotAssignedException("Student with ID " + studentId
+                        + " does not have subject with ID " + subjectId);
+            }
+            if (student != null && !scope.join(student)) {
+                throw new EntityNotFoundException("Student not found with id: " + studentId);
+            }
+            if (subject != null && !scope.join(subject)) {
+                throw new EntityNotFoundException("Subject not found with id: " + subjectId);
+            }
         }
+    }
 
+    private List<Mark> loadMarks(Long studentId, Long subjectId) {
         logger.info("Fetching marks for student: {}, subject: {}", studentId, subjectId);
-        List<Mark> marks;
-        if (studentId != null && subjectId != null) {
-            Student student = studentRepository.findById(studentId)
-                    .orElseThrow(() ->
-                            new EntityNotFoundException("Student not found with id: " + studentId));
-            Subject subject = subjectRepository.findById(subjectId)
-                    .orElseThrow(() ->
-                            new EntityNotFoundException("Subject not found with id: " + subjectId));
-            marks = markRepository.findByStudentAndSubject(student, subject);
-        } else if (studentId != null) {
-            marks = markRepository.findByStudentId(studentId);
-        } else if (subjectId != null) {
-            marks = markRepository.findBySubjectId(subjectId);
-        } else {
-            marks = markRepository.findAll();
-        }
-
-        cache.put(cacheKey, marks);
-        return marks;
+        return markColumns.find(studentId, subjectId);
     }
 
     @Override
-    public List<Mark> findByValue(int value) {
-        String cacheKey = "value-" + value;
-        List<Mark> cachedMarks = (List<Mark>) cache.get(cacheKey);
-        if (cachedMarks != null) {
-            return cachedMarks;
+    public CursorPage<Mark> readMarksPage(Long studentId, Long subjectId, String cursor,
+                                          int limit) {
+        requireMarksFilter(studentId, subjectId);
+
+        List<String> conditions = new ArrayList<>();
+        Map<String, Object> params = new HashMap<>();
+        if (studentId != null) {
+            conditions.add("e.student.id = :studentId");
+            params.put("studentId", studentId);
+        }
+        if (subjectId != null) {
+            conditions.add("e.subject.id = :subjectId");
+            params.put("subjectId", subjectId);
         }
+        String where = conditions.isEmpty() ? null : String.join(" AND ", conditions);
+
+        @SuppressWarnings("unchecked")
+        CursorPage<Mark> page = (CursorPage<Mark>) cache.queries().getOrLoad(
+                "marks-page-" + studentId + "-" + subjectId + "-" + cursor + "-" + limit,
+                () -> {
+                    logger.info("Fetching marks page for student: {}, subject: {}, limit: {}",
+                            studentId, subjectId, limit);
+                    return keysetRepository.page("Mark e", where, params, PageOrder.ID,
+                            cursor, limit);
+                }, loaded -> {
+                    // Deletes reach a page through its marks; inserts take the next ids, so
+                    // only the last page listens for the filter's writes.
+                    CursorPage<Mark> marks = (CursorPage<Mark>) loaded;
+                    List<String> tags = new ArrayList<>(marks.items().size() + 1);
+                    marks.items().forEach(mark -> tags.add(CacheTags.mark(mark.getId())));
+                    tags.add(CacheTags.MARKS);
+                    return CacheTags.page(tags, marks.isLast(),
+                            CacheTags.marks(studentId, subjectId));
+                });
+        return page;
+    }
 
-        List<Mark> marks = markRepository.findByValue(value);
-        cache.put(cacheKey, marks);
+    @Override
+    public List<Mark> findByValue(int value) {
+        @SuppressWarnings("unchecked")
+        List<Mark> marks = (List<Mark>) cache.queries().getOrLoad("mark-value-" + value,
+                () -> markColumns.findByValue(value),
+                CacheTags.markValue(value), CacheTags.MARKS);
         return marks;
     }
 
     @Override
     public Double getAverageMarkByStudentId(Long studentId) {
-        String cacheKey = "avg-student-" + studentId;
-        Double cachedAvg = (Double) cache.get(cacheKey);
-        if (cachedAvg != null) {
-            return cachedAvg;
-        }
-
-        Double avgMark = markRepository.getAverageMarkByStudentId(studentId);
-        cache.put(cacheKey, avgMark);
-        return avgMark;
+        return average(markStatistics.student(studentId));
     }
 
     @Override
     public Double getAverageMarkBySubjectId(Long subjectId) {
-        String cacheKey = "avg-subject-" + subjectId;
-        Double cachedAvg = (Double) cache.get(cacheKey);
-        if (cachedAvg != null) {
-            return cachedAvg;
-        }
+        return average(markStatistics.subject(subjectId));
+    }
+
+    @Override
+    public Map<Long, Double> getAverageMarksByStudentIds(Collection<Long> studentIds) {
+        return averages(markStatistics.studentHistograms(studentIds));
+    }
+
+    @Override
+    public Map<Long, Double> getAverageMarksBySubjectIds(Collection<Long> subjectIds) {
+        return averages(markStatistics.subjectHistograms(subjectIds));
+    }
+
+    @Override
+    public MarkDistribution getDistribution(List<Integer> percentiles) {
+        return distribution(markStatistics.overall(), percentiles);
+    }
+
+    @Override
+    public MarkDistribution getDistributionByStudentId(Long studentId,
+                                                       List<Integer> percentiles) {
+        return distribution(markStatistics.student(studentId), percentiles);
+    }
+
+    @Override
+    public MarkDistribution getDistributionBySubjectId(Long subjectId,
+                                                       List<Integer> percentiles) {
+        return distribution(markStatistics.subject(subjectId), percentiles);
+    }
+
+    @Override
+    public List<LeaderboardEntry> getSubjectLeaderboard(Long subjectId, int limit) {
+        return leaderboards.topBySubject(subjectId, limit);
+    }
+
+    @Override
+    public List<LeaderboardEntry> getGroupLeaderboard(Long groupId, int limit) {
+        return leaderboards.topByGroup(groupId, limit);
+    }
+
+    @Override
+    public LeaderboardEntry getSubjectRank(Long subjectId, Long studentId) {
+        return leaderboards.rankInSubject(subjectId, studentId);
+    }
+
+    @Override
+    public LeaderboardEntry getGroupRank(Long groupId, Long studentId) {
+        return leaderboards.rankInGroup(groupId, studentId);
+    }
+
+    private static Double average(MarkHistogram histogram) {
+        return histogram != null ? histogram.average() : null;
+    }
 
-        Double avgMark = markRepository.getAverageMarkBySubjectId(subjectId);
-        cache.put(cacheKey, avgMark);
-        return avgMark;
+    private static Map<Long, Double> averages(Map<Long, MarkHistogram> histograms) {
+        Map<Long, Double> averages = new LinkedHashMap<>();
+        histograms.forEach((id, histogram) -> averages.put(id, average(histogram)));
+        return averages;
+    }
+
+    private static MarkDistribution distribution(MarkHistogram histogram,
+                                                 List<Integer> percentiles) {
+        if (histogram == null) {
+            return null;
+        }
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        for (int value = MarkHistogram.MIN_VALUE; value <= MarkHistogram.MAX_VALUE; value++) {
+            counts.put(value, histogram.count(value));
+        }
+        Map<Integer, Integer> ranks = new LinkedHashMap<>();
+        for (Integer percentile : percentiles) {
+            ranks.put(percentile, histogram.percentile(percentile));
+        }
+        return new MarkDistribution(histogram.count(), histogram.average(),
+                histogram.percentile(50), counts, ranks);
     }
 
     @Override
@@ -130,46 +269,133 @@ public class MarkServiceImpl implements MarkService {
                         new EntityNotFoundException("Subject not found with name: " + subjectName));
         Long subjectId = subject.getId();
 
-        int deletedCount = markRepository.deleteMarkByStudentIdSubjectNameValueAndOptionalId(
-                studentId, subjectName, markValue, id);
-        if (deletedCount == 0) {
+        List<Long> deleted =
+                markBatchRepository.deleteMarks(studentId, subjectName, markValue, id);
+        if (deleted.isEmpty()) {
             throw new EntityNotFoundException("Mark not found with the given criteria.");
         }
+        markStatistics.removed(studentId, subjectId, markValue, deleted.size());
+        markColumns.changed(List.of(studentId));
 
-        clearCacheForSubject(subjectId);
-        clearCacheForStudent(studentId);
-        if (id != null) {
-            cache.remove("mark-" + id);
-        }
+        clearMarkCaches(studentId, subjectId, markValue, deleted);
     }
 
     @Override
-    @Transactional
     public Mark addMark(Mark mark) {
+        Long studentId = mark.getStudent().getId();
+        Long subjectId = mark.getSubject().getId();
         logger.info("Adding mark for student: {}, subject: {}, value: {}",
-                mark.getStudent().getId(), mark.getSubject().getId(), mark.getValue());
+                studentId, subjectId, mark.getValue());
+
+        // The checks run in parallel and before the transaction, so the request does not
+        // hold a connection while the lookups wait for theirs.
+        try (FanOut.Scope scope = fanOut.open()) {
+            CompletableFuture<Boolean> student =
+                    scope.fork(() -> studentRepository.existsById(studentId));
+            CompletableFuture<Boolean> subject =
+                    scope.fork(() -> subjectRepository.existsById(subjectId));
+            CompletableFuture<List<Subject>> subjects =
+                    scope.fork(() -> studentSubjectService.getSubjectsByStudent(studentId));
+            if (!scope.join(student)) {
+                throw new EntityNotFoundException("Student not found with id: " + studentId);
+            }
+            if (!scope.join(subject)) {
+                throw new EntityNotFoundException("Subject not found with id: " + subjectId);
+            }
+            boolean hasSubject = scope.join(subjects)
+                    .stream().anyMatch(s ->
+                            s.getId().equals(subjectId));
+            if (!hasSubject) {
+                throw new SubjectNotAssignedException("Student with ID " + studentId
+                        + " does not have subject with ID " + subjectId);
+            }
+        }
+
+        return transactionTemplate.execute(status -> {
+            final Mark savedMark = markRepository.save(mark);
+            markStatistics.added(studentId, subjectId, savedMark.getValue());
+            markColumns.added(savedMark.getId(), studentId, subjectId, savedMark.getValue());
+
+            clearMarkCaches(studentId, subjectId, savedMark.getValue());
 
-        Student student = studentRepository.findById(mark.getStudent().getId())
-                .orElseThrow(() -> new EntityNotFoundException("Student not found with id: "
-                        + mark.getStudent().getId()));
-        Subject subject = subjectRepository.findById(mark.getSubject().getId())
-                .orElseThrow(() -> new EntityNotFoundException("Subject not found with id: "
-                        + mark.getSubject().getId()));
+            return savedMark;
+        });
+    }
 
-        boolean hasSubject = studentSubjectService.getSubjectsByStudent(student.getId())
-                .stream().anyMatch(s ->
-                        s.getId().equals(subject.getId()));
-        if (!hasSubject) {
-            throw new SubjectNotAssignedException("Student with ID " + student.getId()
-                    + " does not have subject with ID " + subject.getId());
+    @Override
+    @Transactional
+    public MarkBatchResult addMarks(List<MarkBatchItem> marks) {
+        long start = System.nanoTime();
+        Set<Long> studentIds = new HashSet<>();
+        Set<Long> subjectIds = new HashSet<>();
+        for (MarkBatchItem mark : marks) {
+            if (mark != null && mark.studentId() != null) {
+                studentIds.add(mark.studentId());
+            }
+            if (mark != null && mark.subjectId() != null) {
+                subjectIds.add(mark.subjectId());
+            }
+        }
+        Set<Long> students = studentIds.isEmpty()
+                ? Set.of() : markBatchRepository.findExistingStudentIds(studentIds);
+        Set<Long> subjects = subjectIds.isEmpty()
+                ? Set.of() : markBatchRepository.findExistingSubjectIds(subjectIds);
+        Map<Long, Set<Long>> enrollments = students.isEmpty()
+                ? Map.of() : markBatchRepository.findEnrollments(students);
+
+        List<MarkBatchItem> accepted = new ArrayList<>(marks.size());
+        List<MarkBatchResult.Failure> failures = new ArrayList<>();
+        for (int i = 0; i < marks.size(); i++) {
+            MarkBatchItem mark = marks.get(i);
+            String reason = rejectReason(mark, students, subjects, enrollments);
+            if (reason != null) {
+                failures.add(new MarkBatchResult.Failure(i, reason));
+            } else {
+                accepted.add(mark);
+            }
         }
 
-        final Mark savedMark = markRepository.save(mark);
+        if (!accepted.isEmpty()) {
+            markBatchRepository.insertAll(accepted);
+            Set<String> tags = new LinkedHashSet<>();
+            Set<Long> changedStudents = new HashSet<>();
+            for (MarkBatchItem mark : accepted) {
+                markStatistics.added(mark.studentId(), mark.subjectId(), mark.value());
+                changedStudents.add(mark.studentId());
+                tags.addAll(List.of(
+                        CacheTags.markWrite(mark.studentId(), mark.subjectId(), mark.value())));
+            }
+            markColumns.changed(changedStudents);
+            cache.invalidateTags(tags.toArray(String[]::new));
+        }
 
-        clearCacheForSubject(subject.getId());
-        clearCacheForStudent(student.getId());
+        long end = System.nanoTime();
+        logger.info("Added {} of {} marks in batch in {} ms", accepted.size(), marks.size(),
+                (end - start) / 1_000_000);
+        return new MarkBatchResult(accepted.size(), failures);
+    }
 
-        return savedMark;
+    private static String rejectReason(MarkBatchItem mark, Set<Long> students,
+                                       Set<Long> subjects, Map<Long, Set<Long>> enrollments) {
+        if (mark == null || mark.studentId() == null || mark.subjectId() == null
+                || mark.value() == null) {
+            return "studentId, subjectId and value are required";
+        }
+        if (mark.value() < MarkHistogram.MIN_VALUE || mark.value() > MarkHistogram.MAX_VALUE) {
+            return "Mark value must be between " + MarkHistogram.MIN_VALUE
+                    + " and " + MarkHistogram.MAX_VALUE;
+        }
+        if (!students.contains(mark.studentId())) {
+            return "Student not found with id: " + mark.studentId();
+        }
+        if (!subjects.contains(mark.subjectId())) {
+            return "Subject not found with id: " + mark.subjectId();
+        }
+        if (!enrollments.getOrDefault(mark.studentId(), Set.of()).contains(mark.subjectId())) {
+            return "Student with ID " + mark.studentId()
+                    + " does not have subject with ID " + mark.subjectId();
+        }
+        return null;
     }
 
     @Override
@@ -184,58 +410,22 @@ public class MarkServiceImpl implements MarkService {
         Long subjectId = mark.getSubject().getId();
 
         markRepository.deleteById(id);
+        markStatistics.removed(studentId, subjectId, mark.getValue(), 1);
+        markColumns.removed(mark);
 
-        clearCacheForSubject(subjectId);
-        clearCacheForStudent(studentId);
+        clearMarkCaches(studentId, subjectId, mark.getValue(), List.of(id));
     }
 
-    public void clearCacheForSubject(Long subjectId) {
-        logger.info("Clearing cache for subject with id: {}", subjectId);
-
-        List<Mark> subjectMarks = markRepository.findBySubjectId(subjectId);
-
-        Set<Long> affectedStudentIds = subjectMarks.stream()
-                .map(mark -> mark.getStudent().getId())
-                .collect(Collectors.toSet());
-
-        for (Long studentId : affectedStudentIds) {
-            cache.remove("marks-" + studentId + "-" + subjectId);
-            cache.remove("marks-" + studentId + "-all");
-            cache.remove("avg-student-" + studentId);
-        }
-
-        cache.remove("marks-all-" + subjectId);
-        cache.remove("marks-all-all");
-        cache.remove("avg-subject-" + subjectId);
-
-        for (Mark mark : subjectMarks) {
-            cache.remove("mark-" + mark.getId());
-            cache.remove("value-" + mark.getValue());
-        }
+    private void clearMarkCaches(long studentId, long subjectId, int value) {
+        clearMarkCaches(studentId, subjectId, value, List.of());
     }
 
-    public void clearCacheForStudent(Long studentId) {
-        logger.info("Clearing cache for student with id: {}", studentId);
-
-        List<Mark> studentMarks = markRepository.findByStudentId(studentId);
-
-        Set<Long> affectedSubjectIds = studentMarks.stream()
-                .map(mark -> mark.getSubject().getId())
-                .collect(Collectors.toSet());
-
-        for (Long subjectId : affectedSubjectIds) {
-            cache.remove("marks-" + studentId + "-" + subjectId);
-            cache.remove("marks-all-" + subjectId);
-            cache.remove("avg-subject-" + subjectId);
-        }
-
-        cache.remove("marks-" + studentId + "-all");
-        cache.remove("marks-all-all");
-        cache.remove("avg-student-" + studentId);
-
-        for (Mark mark : studentMarks) {
-            cache.remove("mark-" + mark.getId());
-            cache.remove("value-" + mark.getValue());
-        }
+    private void clearMarkCaches(long studentId, long subjectId, int value,
+                                 List<Long> deletedIds) {
+        logger.info("Clearing mark caches for student: {}, subject: {}", studentId, subjectId);
+        List<String> tags = new ArrayList<>(List.of(CacheTags.markWrite(studentId, subjectId,
+                value)));
+        deletedIds.forEach(id -> tags.add(CacheTags.mark(id)));
+        cache.invalidateTags(tags.toArray(String[]::new));
     }
-}
\ No newline at end of file
+}
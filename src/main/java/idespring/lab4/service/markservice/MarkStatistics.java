@@ -0,0 +1,292 @@
+package idespring.lab4.service.markservice;
+
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.cache.bus.InvalidationBus;
+import idespring.lab4.model.Mark;
+import idespring.lab4.repository.markrepo.MarkRepository;
+import idespring.lab4.repository.markrepo.MarkValueCount;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Running histograms of mark values per student, per subject and overall, so averages and
+ * distributions are answered from memory. Seeded with one grouped scan and then kept
+ * current by the mark writes; a write that rolls back is reversed. Histograms changed by
+ * another instance arrive as invalidation tags and are reloaded for just the affected ids
+ * on next read. A reseed does not block writers: writes racing its query are replayed on
+ * the result unless the snapshot already counts them, and ids whose writes committed
+ * during the query are reloaded.
+ */
+@Component
+public class MarkStatistics {
+    private static final Logger logger = LoggerFactory.getLogger(MarkStatistics.class);
+
+    private final MarkRepository markRepository;
+    private final Leaderboards leaderboards;
+    private final ConcurrentHashMap<Long, MarkHistogram> byStudent = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, MarkHistogram> bySubject = new ConcurrentHashMap<>();
+    private final AtomicReference<MarkHistogram> overall = new AtomicReference<>();
+    private final Set<Long> staleStudents = ConcurrentHashMap.newKeySet();
+    private final Set<Long> staleSubjects = ConcurrentHashMap.newKeySet();
+    private final ReentrantReadWriteLock seedLock = new ReentrantReadWriteLock();
+    private final ReentrantLock seedMutex = new ReentrantLock();
+    private final SeedJournal<Delta> journal = new SeedJournal<>(seedLock.readLock());
+    private volatile boolean overallStale;
+    private volatile boolean seeded;
+
+    @Autowired
+    public MarkStatistics(MarkRepository markRepository, Leaderboards leaderboards,
+                          InvalidationBus bus) {
+        this.markRepository = markRepository;
+        this.leaderboards = leaderboards;
+        bus.subscribe(this::onRemoteInvalidation);
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            seed();
+        } catch (RuntimeException e) {
+            logger.warn("Mark statistics not seeded at startup, will retry on first read: {}",
+                    e.getMessage());
+        }
+    }
+
+    public void seed() {
+        seedMutex.lock();
+        try {
+            long start = System.nanoTime();
+            // Invalidations that arrived before the query are covered by its snapshot.
+            staleStudents.clear();
+            staleSubjects.clear();
+            overallStale = false;
+            SeedJournal.Seed<Delta> seed = journal.begin();
+            Map<Long, long[]> students = new HashMap<>();
+            Map<Long, long[]> subjects = new HashMap<>();
+            long[] all = new long[MarkHistogram.MAX_VALUE + 1];
+            try {
+                for (MarkValueCount row : markRepository.getValueCountsByStudentAndSubject()) {
+                    if (row.getStudentId() != null) {
+                        counts(students, row.getStudentId())[row.getValue()] = row.getCount();
+                    } else if (row.getSubjectId() != null) {
+                        counts(subjects, row.getSubjectId())[row.getValue()] = row.getCount();
+                    } else {
+                        all[row.getValue()] = row.getCount();
+                    }
+                }
+            } catch (RuntimeException e) {
+                journal.cancel(seed);
+                throw e;
+            }
+            seed.queried();
+
+            seedLock.writeLock().lock();
+            try {
+                journal.finish(seed, (delta, visibility) -> {
+                    if (visibility == SeedJournal.Visibility.AFTER_SNAPSHOT) {
+                        add(counts(students, delta.studentId()), delta);
+                        add(counts(subjects, delta.subjectId()), delta);
+                        add(all, delta);
+                    } else if (visibility == SeedJournal.Visibility.UNKNOWN) {
+                        staleStudents.add(delta.studentId());
+                        staleSubjects.add(delta.subjectId());
+                        overallStale = true;
+                    }
+                });
+                byStudent.clear();
+                bySubject.clear();
+                students.forEach((id, counts) -> putHistogram(byStudent, id, counts));
+                subjects.forEach((id, counts) -> putHistogram(bySubject, id, counts));
+                overall.set(MarkHistogram.of(all));
+                seeded = true;
+            } finally {
+                seedLock.writeLock().unlock();
+            }
+
+            long end = System.nanoTime();
+            logger.info("Seeded mark statistics for {} students and {} subjects in {} ms",
+                    byStudent.size(), bySubject.size(), (end - start) / 1_000_000);
+        } finally {
+            seedMutex.unlock();
+        }
+    }
+
+    private static void add(long[] counts, Delta delta) {
+        counts[delta.value()] = Math.max(0, counts[delta.value()] + delta.count());
+    }
+
+    private static void putHistogram(Map<Long, MarkHistogram> histograms, Long id,
+                                     long[] counts) {
+        MarkHistogram histogram = MarkHistogram.of(counts);
+        if (histogram != null) {
+            histograms.put(id, histogram);
+        }
+    }
+
+    public MarkHistogram student(long studentId) {
+        return studentHistograms(List.of(studentId)).get(studentId);
+    }
+
+    public MarkHistogram subject(long subjectId) {
+        return subjectHistograms(List.of(subjectId)).get(subjectId);
+    }
+
+    public MarkHistogram overall() {
+        ensureSeeded();
+        if (overallStale) {
+            overallStale = false;
+            long[] all = new long[MarkHistogram.MAX_VALUE + 1];
+            for (MarkValueCount row : markRepository.getValueCounts()) {
+                all[row.getValue()] = row.getCount();
+            }
+            overall.set(MarkHistogram.of(all));
+        }
+        return overall.get();
+    }
+
+    /** Histograms of the given students, in order; null for students without marks. */
+    public Map<Long, MarkHistogram> studentHistograms(Collection<Long> studentIds) {
+        return histograms(studentIds, byStudent, staleStudents,
+                markRepository::getValueCountsByStudentIds, MarkValueCount::getStudentId);
+    }
+
+    /** Histograms of the given subjects, in order; null for subjects without marks. */
+    public Map<Long, MarkHistogram> subjectHistograms(Collection<Long> subjectIds) {
+        return histograms(subjectIds, bySubject, staleSubjects,
+                markRepository::getValueCountsBySubjectIds, MarkValueCount::getSubjectId);
+    }
+
+    public void added(long studentId, long subjectId, int value) {
+        change(new Delta(studentId, subjectId, value, 1));
+    }
+
+    public void removed(long studentId, long subjectId, int value, int count) {
+        change(new Delta(studentId, subjectId, value, -count));
+    }
+
+    /** Records marks deleted along with their student or subject. */
+    public void removedAll(Collection<Mark> marks) {
+        for (Mark mark : marks) {
+            removed(mark.getStudent().getId(), mark.getSubjectId(), mark.getValue(), 1);
+        }
+    }
+
+    private void change(Delta delta) {
+        seedLock.readLock().lock();
+        try {
+            apply(delta);
+            journal.record(delta, () -> apply(delta.inverse()));
+        } finally {
+            seedLock.readLock().unlock();
+        }
+        // Rankings keep their own journal, so a rollback undoes them only once.
+        leaderboards.apply(delta.studentId(), delta.subjectId(), delta.value(), delta.count());
+    }
+
+    private void apply(Delta delta) {
+        int value = delta.value();
+        long count = delta.count();
+        byStudent.compute(delta.studentId(), (id, current) -> plus(current, value, count));
+        bySubject.compute(delta.subjectId(), (id, current) -> plus(current, value, count));
+        overall.updateAndGet(current -> plus(current, value, count));
+    }
+
+    private static MarkHistogram plus(MarkHistogram current, int value, long delta) {
+        // A null result drops ids that have no marks left.
+        return (current != null ? current : MarkHistogram.EMPTY).plus(value, delta);
+    }
+
+    private Map<Long, MarkHistogram> histograms(
+            Collection<Long> ids, ConcurrentHashMap<Long, MarkHistogram> histograms,
+            Set<Long> stale, Function<List<Long>, List<MarkValueCount>> loader,
+            Function<MarkValueCount, Long> idOf) {
+        ensureSeeded();
+        List<Long> misses = new ArrayList<>();
+        for (Long id : ids) {
+            if (stale.remove(id)) {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<Long, long[]> loaded = new HashMap<>();
+            for (MarkValueCount row : loader.apply(misses)) {
+                counts(loaded, idOf.apply(row))[row.getValue()] = row.getCount();
+            }
+            seedLock.readLock().lock();
+            try {
+                for (Long id : misses) {
+                    long[] counts = loaded.get(id);
+                    if (counts != null) {
+                        histograms.put(id, MarkHistogram.of(counts));
+                    } else {
+                        histograms.remove(id);
+                    }
+                }
+            } finally {
+                seedLock.readLock().unlock();
+            }
+        }
+
+        Map<Long, MarkHistogram> result = new LinkedHashMap<>();
+        for (Long id : ids) {
+            result.put(id, histograms.get(id));
+        }
+        return result;
+    }
+
+    private static long[] counts(Map<Long, long[]> histograms, Long id) {
+        return histograms.computeIfAbsent(id, key -> new long[MarkHistogram.MAX_VALUE + 1]);
+    }
+
+    private void ensureSeeded() {
+        if (!seeded) {
+            seedMutex.lock();
+            try {
+                if (!seeded) {
+                    seed();
+                }
+            } finally {
+                seedMutex.unlock();
+            }
+        }
+    }
+
+    private void onRemoteInvalidation(String[] tags) {
+        // Only targeted marks tags reach here; the coarse MARKS tag is a per-entry tag for
+        // local invalidation and never forces a reseed.
+        for (String tag : tags) {
+            if (CacheTags.marks(null, null).equals(tag)) {
+                overallStale = true;
+            }
+            Long studentId = CacheTags.studentOfMarks(tag);
+            if (studentId != null) {
+                staleStudents.add(studentId);
+            }
+            Long subjectId = CacheTags.subjectOfMarks(tag);
+            if (subjectId != null) {
+                staleSubjects.add(subjectId);
+            }
+        }
+    }
+
+    private record Delta(long studentId, long subjectId, int value, long count) {
+        Delta inverse() {
+            return new Delta(studentId, subjectId, value, -count);
+        }
+    }
+}
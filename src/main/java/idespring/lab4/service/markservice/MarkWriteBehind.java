@@ -0,0 +1,244 @@
+package idespring.lab4.service.markservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import idespring.lab4.cache.BoundedCache;
+import idespring.lab4.dto.MarkBatchItem;
+import idespring.lab4.dto.MarkBatchResult;
+import idespring.lab4.dto.MarkTicket;
+import idespring.lab4.exceptions.MarkQueueFullException;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind queue for marks submitted with {@code async=true}. Requests only enqueue and
+ * get a ticket; one writer thread drains the bounded queue and stores what it collected
+ * through the batch insert path. A full queue rejects new marks instead of growing.
+ *
+ * <p>On shutdown the queue stops accepting and the writer drains it; marks that could not
+ * be written in time are spooled to a file and inserted on the next start. Only a graceful
+ * shutdown spools: marks still queued when the process crashes or is killed are lost, and
+ * their tickets with them. A crash during replay repeats at most the batch that was being
+ * stored.
+ */
+@Component
+public class MarkWriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(MarkWriteBehind.class);
+    private static final long TICKET_TTL_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final long POLL_MILLIS = 200;
+
+    private final MarkService markService;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<Submission> queue;
+    private final BoundedCache<String, MarkTicket> tickets;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final long shutdownTimeoutMillis;
+    private final Path spoolFile;
+    private final Thread writer;
+    private volatile boolean accepting = true;
+
+    @Autowired
+    public MarkWriteBehind(MarkService markService, ObjectMapper objectMapper,
+                           @Value("${marks.async.capacity:10000}") int capacity,
+                           @Value("${marks.async.batchSize:500}") int batchSize,
+                           @Value("${marks.async.lingerMillis:20}") long lingerMillis,
+                           @Value("${marks.async.shutdownTimeout:10000}") long shutdownTimeout,
+                           @Value("${marks.async.spoolFile:marks-spool.ndjson}") String spool) {
+        this.markService = markService;
+        this.objectMapper = objectMapper;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.tickets = new BoundedCache<>(capacity * 10L, TICKET_TTL_NANOS,
+                (id, ticket) -> 1, (id, ticket, cause) -> { });
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.shutdownTimeoutMillis = shutdownTimeout;
+        this.spoolFile = Path.of(spool);
+        this.writer = Thread.ofPlatform().daemon().name("mark-writer").start(this::writeLoop);
+    }
+
+    public MarkTicket submit(MarkBatchItem mark) {
+        MarkTicket ticket = new MarkTicket(UUID.randomUUID().toString(),
+                MarkTicket.Status.QUEUED, null);
+        tickets.put(ticket.id(), ticket);
+        if (!accepting || !queue.offer(new Submission(ticket.id(), mark))) {
+            tickets.remove(ticket.id());
+            throw new MarkQueueFullException("Mark queue is full, retry later");
+        }
+        return ticket;
+    }
+
+    /** Current status of a ticket, or null if it is unknown or has expired. */
+    public MarkTicket ticket(String id) {
+        return tickets.get(id);
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Stores marks spooled by the last shutdown. The spool is first moved aside, so marks
+     * spooled meanwhile start a new file, and it is rewritten after every stored batch; a
+     * failure leaves only the unstored marks for the next start instead of aborting this one.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replaySpool() {
+        Path replaying = spoolFile.resolveSibling(spoolFile.getFileName() + ".replaying");
+        try {
+            if (Files.exists(replaying)) {
+                replay(replaying);
+            }
+            if (Files.exists(spoolFile)) {
+                Files.move(spoolFile, replaying, StandardCopyOption.ATOMIC_MOVE);
+                replay(replaying);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to replay mark spool, kept for the next start: {}",
+                    e.getMessage());
+        }
+    }
+
+    private void replay(Path replaying) throws IOException {
+        List<MarkBatchItem> marks = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(replaying, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    marks.add(objectMapper.readValue(line, MarkBatchItem.class));
+                }
+            }
+        }
+
+        int stored = 0;
+        for (int from = 0; from < marks.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, marks.size());
+            stored += markService.addMarks(marks.subList(from, to)).inserted();
+            rewrite(replaying, marks.subList(to, marks.size()));
+        }
+        Files.delete(replaying);
+        logger.info("Replayed {} spooled marks, stored {}", marks.size(), stored);
+    }
+
+    /** Replaces the file with the marks not stored yet, in one atomic move. */
+    private void rewrite(Path file, List<MarkBatchItem> remaining) throws IOException {
+        Path next = file.resolveSibling(file.getFileName() + ".next");
+        try (BufferedWriter out = Files.newBufferedWriter(next, StandardCharsets.UTF_8)) {
+            for (MarkBatchItem mark : remaining) {
+                out.write(objectMapper.writeValueAsString(mark));
+                out.newLine();
+            }
+        }
+        Files.move(next, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        accepting = false;
+        try {
+            writer.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Submission> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            spool(remaining);
+        }
+    }
+
+    private void writeLoop() {
+        List<Submission> batch = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                Submission first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                long remaining;
+                while (batch.size() < batchSize
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    Submission next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Submission> batch) {
+        List<MarkBatchItem> marks = batch.stream().map(Submission::mark).toList();
+        try {
+            MarkBatchResult result = markService.addMarks(marks);
+            String[] reasons = new String[batch.size()];
+            for (MarkBatchResult.Failure failure : result.failures()) {
+                reasons[failure.index()] = failure.reason();
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                MarkTicket.Status status = reasons[i] == null
+                        ? MarkTicket.Status.STORED : MarkTicket.Status.REJECTED;
+                complete(batch.get(i), status, reasons[i]);
+            }
+        } catch (RuntimeException e) {
+            if (!accepting) {
+                spool(batch);
+                return;
+            }
+            logger.error("Failed to write {} queued marks: {}", batch.size(), e.getMessage());
+            for (Submission submission : batch) {
+                complete(submission, MarkTicket.Status.FAILED, e.getMessage());
+            }
+        }
+    }
+
+    private void complete(Submission submission, MarkTicket.Status status, String reason) {
+        tickets.put(submission.ticketId(), new MarkTicket(submission.ticketId(), status, reason));
+    }
+
+    private synchronized void spool(List<Submission> submissions) {
+        try (BufferedWriter out = Files.newBufferedWriter(spoolFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Submission submission : submissions) {
+                out.write(objectMapper.writeValueAsString(submission.mark()));
+                out.newLine();
+            }
+            logger.warn("Spooled {} unwritten marks to {}", submissions.size(), spoolFile);
+        } catch (IOException e) {
+            logger.error("Lost {} queued marks, spool {} not writable: {}",
+                    submissions.size(), spoolFile, e.getMessage());
+        }
+    }
+
+    private record Submission(String ticketId, MarkBatchItem mark) {
+    }
+}
@@ -0,0 +1,153 @@
+package idespring.lab4.service.markservice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Order-statistic treap: a randomized balanced search tree whose nodes also count their
+ * subtree, so insertion, removal and the rank of an element are O(log n) and the first
+ * {@code n} elements come out in O(log size + n). Not thread-safe.
+ */
+final class RankTree<T> {
+    private final Comparator<? super T> comparator;
+    private TreeNode<T> root;
+
+    RankTree(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    void insert(T value) {
+        root = insert(root, new TreeNode<>(value, ThreadLocalRandom.current().nextInt()));
+    }
+
+    void remove(T value) {
+        root = remove(root, value);
+    }
+
+    /** Number of elements ordered before {@code value}, or -1 if it is not in the tree. */
+    int rankOf(T value) {
+        int rank = 0;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(value, node.value);
+            if (cmp == 0) {
+                return rank + size(node.left);
+            }
+            if (cmp < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return -1;
+    }
+
+    /** The first {@code limit} elements in order. */
+    List<T> first(int limit) {
+        List<T> result = new ArrayList<>(Math.min(limit, size()));
+        collect(root, limit, result);
+        return result;
+    }
+
+    private void collect(TreeNode<T> node, int limit, List<T> result) {
+        if (node == null || result.size() >= limit) {
+            return;
+        }
+        collect(node.left, limit, result);
+        if (result.size() < limit) {
+            result.add(node.value);
+            collect(node.right, limit, result);
+        }
+    }
+
+    private TreeNode<T> insert(TreeNode<T> node, TreeNode<T> added) {
+        if (node == null) {
+            return added;
+        }
+        if (comparator.compare(added.value, node.value) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        return update(node);
+    }
+
+    private TreeNode<T> remove(TreeNode<T> node, T value) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = comparator.compare(value, node.value);
+        if (cmp < 0) {
+            node.left = remove(node.left, value);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, value);
+        } else {
+            return merge(node.left, node.right);
+        }
+        return update(node);
+    }
+
+    private TreeNode<T> merge(TreeNode<T> left, TreeNode<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private TreeNode<T> rotateRight(TreeNode<T> node) {
+        TreeNode<T> left = node.left;
+        node.left = left.right;
+        left.right = update(node);
+        return left;
+    }
+
+    private TreeNode<T> rotateLeft(TreeNode<T> node) {
+        TreeNode<T> right = node.right;
+        node.right = right.left;
+        right.left = update(node);
+        return right;
+    }
+
+    private static <T> TreeNode<T> update(TreeNode<T> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static int size(TreeNode<?> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static final class TreeNode<T> {
+        final T value;
+        final int priority;
+        TreeNode<T> left;
+        TreeNode<T> right;
+        int size = 1;
+
+        TreeNode(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+}
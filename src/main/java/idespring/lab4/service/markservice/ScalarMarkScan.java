@@ -0,0 +1,36 @@
+package idespring.lab4.service.markservice;
+
+final class ScalarMarkScan implements MarkScan {
+    @Override
+    public void selectEqual(byte[] column, int size, byte key, Positions out) {
+        for (int i = 0; i < size; i++) {
+            if (column[i] == key) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void selectEqual(long[] column, int size, long key, Positions out) {
+        for (int i = 0; i < size; i++) {
+            if (column[i] == key) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void selectEqual(long[] first, long[] second, int size, long firstKey,
+                            long secondKey, Positions out) {
+        for (int i = 0; i < size; i++) {
+            if (first[i] == firstKey && second[i] == secondKey) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar loops";
+    }
+}
@@ -0,0 +1,180 @@
+package idespring.lab4.service.markservice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Deltas applied to an in-memory mark view that is rebuilt from a database snapshot. A
+ * rebuild opens a {@link Seed} before its query and collects every delta of a transaction
+ * still open at that point or recorded while the query runs; when it swaps in its result it
+ * learns, per delta, whether the snapshot can already contain it. Rolled-back deltas are
+ * undone on the live view and never handed to a rebuild.
+ */
+final class SeedJournal<D> {
+    enum Visibility {
+        /** Committed before the query started; the snapshot contains it. */
+        IN_SNAPSHOT,
+        /** Committed after the query returned, or not yet; the snapshot lacks it. */
+        AFTER_SNAPSHOT,
+        /** Committed while the query ran; the snapshot may or may not contain it. */
+        UNKNOWN
+    }
+
+    private final Lock deltaLock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<Entry<D>> open = new HashSet<>();
+    private final List<Seed<D>> seeds = new ArrayList<>();
+
+    /**
+     * @param deltaLock held while a delta is applied to the live view; its exclusive
+     *                  counterpart must be held around {@link #finish}
+     */
+    SeedJournal(Lock deltaLock) {
+        this.deltaLock = deltaLock;
+    }
+
+    /** Records a delta the caller has just applied; {@code undo} reverses it on rollback. */
+    void record(D delta, Runnable undo) {
+        Entry<D> entry = new Entry<>(delta);
+        boolean transactional = TransactionSynchronizationManager.isSynchronizationActive();
+        if (!transactional) {
+            entry.commitStartedAt = System.nanoTime();
+            entry.committing = true;
+            entry.completedAt = entry.commitStartedAt;
+            entry.state = State.COMMITTED;
+        }
+        lock.lock();
+        try {
+            if (transactional) {
+                open.add(entry);
+            }
+            for (Seed<D> seed : seeds) {
+                seed.entries.add(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!transactional) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronization() {
+                    @Override
+                    public void beforeCommit(boolean readOnly) {
+                        entry.commitStartedAt = System.nanoTime();
+                        entry.committing = true;
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        deltaLock.lock();
+                        try {
+                            if (status == STATUS_ROLLED_BACK) {
+                                entry.state = State.ROLLED_BACK;
+                                undo.run();
+                            } else {
+                                entry.completedAt = System.nanoTime();
+                                entry.state = State.COMMITTED;
+                            }
+                        } finally {
+                            deltaLock.unlock();
+                        }
+                        lock.lock();
+                        try {
+                            open.remove(entry);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                });
+    }
+
+    /** Starts collecting deltas for a rebuild; call right before its query. */
+    Seed<D> begin() {
+        lock.lock();
+        try {
+            Seed<D> seed = new Seed<>(System.nanoTime());
+            seed.entries.addAll(open);
+            seeds.add(seed);
+            return seed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the rebuild every collected delta that was not rolled back, with whether its
+     * snapshot can contain it. Call with the live view locked exclusively, then swap.
+     */
+    void finish(Seed<D> seed, BiConsumer<D, Visibility> sink) {
+        List<Entry<D>> entries;
+        lock.lock();
+        try {
+            seeds.remove(seed);
+            entries = seed.entries;
+        } finally {
+            lock.unlock();
+        }
+        for (Entry<D> entry : entries) {
+            if (entry.state == State.ROLLED_BACK) {
+                continue;
+            }
+            if (entry.state == State.COMMITTED && entry.completedAt - seed.startedAt < 0) {
+                sink.accept(entry.delta, Visibility.IN_SNAPSHOT);
+            } else if (!entry.committing || entry.commitStartedAt - seed.queriedAt > 0) {
+                sink.accept(entry.delta, Visibility.AFTER_SNAPSHOT);
+            } else {
+                sink.accept(entry.delta, Visibility.UNKNOWN);
+            }
+        }
+    }
+
+    /** Abandons a rebuild whose query failed. */
+    void cancel(Seed<D> seed) {
+        lock.lock();
+        try {
+            seeds.remove(seed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private enum State {
+        OPEN, COMMITTED, ROLLED_BACK
+    }
+
+    private static final class Entry<D> {
+        final D delta;
+        volatile State state = State.OPEN;
+        volatile boolean committing;
+        volatile long commitStartedAt;
+        volatile long completedAt;
+
+        Entry(D delta) {
+            this.delta = delta;
+        }
+    }
+
+    static final class Seed<D> {
+        private final long startedAt;
+        private final List<Entry<D>> entries = new ArrayList<>();
+        private volatile long queriedAt;
+
+        private Seed(long startedAt) {
+            this.startedAt = startedAt;
+            this.queriedAt = startedAt;
+        }
+
+        /** Marks the end of the rebuild's query. */
+        void queried() {
+            queriedAt = System.nanoTime();
+        }
+    }
+}
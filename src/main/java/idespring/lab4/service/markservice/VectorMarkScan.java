@@ -0,0 +1,72 @@
+package idespring.lab4.service.markservice;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares a full vector of rows per step and only walks the lanes of masks that matched,
+ * so sparse filters cost little more than streaming the column through the CPU once.
+ */
+final class VectorMarkScan implements MarkScan {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public void selectEqual(byte[] column, int size, byte key, Positions out) {
+        int i = 0;
+        for (int bound = BYTES.loopBound(size); i < bound; i += BYTES.length()) {
+            VectorMask<Byte> match = ByteVector.fromArray(BYTES, column, i).eq(key);
+            if (match.anyTrue()) {
+                out.addBits(i, match.toLong());
+            }
+        }
+        for (; i < size; i++) {
+            if (column[i] == key) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void selectEqual(long[] column, int size, long key, Positions out) {
+        int i = 0;
+        for (int bound = LONGS.loopBound(size); i < bound; i += LONGS.length()) {
+            VectorMask<Long> match = LongVector.fromArray(LONGS, column, i).eq(key);
+            if (match.anyTrue()) {
+                out.addBits(i, match.toLong());
+            }
+        }
+        for (; i < size; i++) {
+            if (column[i] == key) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void selectEqual(long[] first, long[] second, int size, long firstKey,
+                            long secondKey, Positions out) {
+        int i = 0;
+        for (int bound = LONGS.loopBound(size); i < bound; i += LONGS.length()) {
+            VectorMask<Long> match = LongVector.fromArray(LONGS, first, i).eq(firstKey);
+            if (match.anyTrue()) {
+                match = match.and(LongVector.fromArray(LONGS, second, i).eq(secondKey));
+                if (match.anyTrue()) {
+                    out.addBits(i, match.toLong());
+                }
+            }
+        }
+        for (; i < size; i++) {
+            if (first[i] == firstKey && second[i] == secondKey) {
+                out.add(i);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector API, " + LONGS.length() + " x long / " + BYTES.length() + " x byte lanes";
+    }
+}
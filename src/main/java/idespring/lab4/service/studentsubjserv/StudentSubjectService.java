@@ -1,5 +1,6 @@
 package idespring.lab4.service.studentsubjserv;
 
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.model.Student;
 import idespring.lab4.model.Subject;
 import java.util.List;
@@ -14,6 +15,8 @@ public interface StudentSubjectService {
 
     Set<Student> getStudentsBySubject(Long subjectId);
 
+    CursorPage<Student> getStudentsBySubjectPage(Long subjectId, String cursor, int limit);
+
     Student findStudentWithSubjects(Long studentId);
 
     Subject findSubjectWithStudents(Long subjectId);
@@ -1,14 +1,21 @@
 package idespring.lab4.service.studentsubjserv;
 
-import idespring.lab4.config.CacheConfig;
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.exceptions.EntityNotFoundException;
 import idespring.lab4.model.Student;
 import idespring.lab4.model.Subject;
+import idespring.lab4.repository.KeysetRepository;
+import idespring.lab4.repository.PageOrder;
 import idespring.lab4.repository.studentrepo.StudentRepository;
 import idespring.lab4.repository.subjectrepo.SubjectRepository;
-import jakarta.transaction.Transactional;
+import idespring.lab4.service.async.FanOut;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,7 +25,9 @@ import org.springframework.stereotype.Service;
 public class StudentSubjectServiceImpl implements StudentSubjectService {
     private final StudentRepository studentRepository;
     private final SubjectRepository subjectRepository;
-    private final CacheConfig<String, Object> cache;
+    private final KeysetRepository keysetRepository;
+    private final CacheRegions cache;
+    private final FanOut fanOut;
     private static final String STUDENT_ERR = "Student not found";
     private static final String SUBJECT_ERR = "Subject not found";
     private static final Logger logger = LoggerFactory.getLogger(StudentSubjectServiceImpl.class);
@@ -26,31 +35,42 @@ public class StudentSubjectServiceImpl implements StudentSubjectService {
     @Autowired
     public StudentSubjectServiceImpl(StudentRepository studentRepository,
                                      SubjectRepository subjectRepository,
-                                     CacheConfig<String, Object> cache) {
+                                     KeysetRepository keysetRepository,
+                                     CacheRegions cache,
+                                     FanOut fanOut) {
         this.studentRepository = studentRepository;
         this.subjectRepository = subjectRepository;
+        this.keysetRepository = keysetRepository;
         this.cache = cache;
+        this.fanOut = fanOut;
     }
 
-    private void clearCaches(Long studentId, Long subjectId) {
-        cache.remove("subjects-" + studentId);
-        cache.remove("students-" + subjectId);
+    private void requireStudentAndSubject(Long studentId, Long subjectId) {
+        try (FanOut.Scope scope = fanOut.open()) {
+            CompletableFuture<Boolean> student =
+                    scope.fork(() -> studentRepository.existsById(studentId));
+            CompletableFuture<Boolean> subject =
+                    scope.fork(() -> subjectRepository.existsById(subjectId));
+            if (!scope.join(student)) {
+                throw new jakarta.persistence.EntityNotFoundException(STUDENT_ERR);
+            }
+            if (!scope.join(subject)) {
+                throw new jakarta.persistence.EntityNotFoundException(SUBJECT_ERR);
+            }
+        }
+    }
 
-        cache.remove("student-with-subjects-" + studentId);
-        cache.remove("subject-with-students-" + subjectId);
+    private void clearCaches(Long studentId, Long subjectId) {
+        cache.invalidateTags(CacheTags.student(studentId), CacheTags.subject(subjectId));
 
         logger.debug("Cleared caches for student {} and subject {}", studentId, subjectId);
     }
 
     @Override
-    @Transactional
     public void addSubjectToStudent(Long studentId, Long subjectId) {
         logger.info("Adding subject {} to student {}", subjectId, studentId);
 
-        studentRepository.findById(studentId)
-                .orElseThrow(() -> new jakarta.persistence.EntityNotFoundException(STUDENT_ERR));
-        subjectRepository.findById(subjectId)
-                .orElseThrow(() -> new jakarta.persistence.EntityNotFoundException(SUBJECT_ERR));
+        requireStudentAndSubject(studentId, subjectId);
 
         studentRepository.addSubject(studentId, subjectId);
         clearCaches(studentId, subjectId);
@@ -58,14 +78,10 @@ public class StudentSubjectServiceImpl implements StudentSubjectService {
     }
 
     @Override
-    @Transactional
     public void removeSubjectFromStudent(Long studentId, Long subjectId) {
         logger.info("Removing subject {} from student {}", subjectId, studentId);
 
-        studentRepository.findById(studentId)
-                .orElseThrow(() -> new jakarta.persistence.EntityNotFoundException(STUDENT_ERR));
-        subjectRepository.findById(subjectId)
-                .orElseThrow(() -> new jakarta.persistence.EntityNotFoundException(SUBJECT_ERR));
+        requireStudentAndSubject(studentId, subjectId);
 
         studentRepository.removeSubject(studentId, subjectId);
         clearCaches(studentId, subjectId);
@@ -78,11 +94,10 @@ public class StudentSubjectServiceImpl implements StudentSubjectService {
         logger.info("Fetching subjects for student {}", studentId);
 
         @SuppressWarnings("unchecked")
-        List<Subject> subjects = (List<Subject>) cache.get("subjects-" + studentId);
-        if (subjects == null) {
-            subjects = subjectRepository.findByStudentId(studentId);
-            cache.put("subjects-" + studentId, subjects);
-        }
+        List<Subject> subjects = (List<Subject>) cache.queries().getOrLoad(
+                "student-subjects-" + studentId,
+                () -> subjectRepository.findByStudentId(studentId),
+                CacheTags.student(studentId));
 
         long end = System.nanoTime();
         logger.info("Execution time for getSubjectsByStudent: {} ms", (end - start) / 1_000_000);
@@ -95,32 +110,61 @@ public class StudentSubjectServiceImpl implements StudentSubjectService {
         logger.info("Fetching students for subject {}", subjectId);
 
         @SuppressWarnings("unchecked")
-        Set<Student> students = (Set<Student>) cache.get("students-" + subjectId);
-        if (students == null) {
-            Subject subject = subjectRepository.findByIdWithStudents(subjectId)
-                    .orElseThrow(() ->
-                            new jakarta.persistence.EntityNotFoundException(SUBJECT_ERR));
-            students = subject.getStudents();
-            cache.put("students-" + subjectId, students);
-        }
+        Set<Student> students = (Set<Student>) cache.queries().getOrLoad(
+                "subject-students-" + subjectId,
+                () -> {
+                    if (!subjectRepository.existsById(subjectId)) {
+                        throw new jakarta.persistence.EntityNotFoundException(SUBJECT_ERR);
+                    }
+                    return new LinkedHashSet<>(studentRepository.findViewsBySubjectId(subjectId));
+                }, loaded -> {
+                    List<String> tags = CacheTags.studentViews((Set<Student>) loaded);
+                    tags.add(CacheTags.subject(subjectId));
+                    tags.add(CacheTags.STUDENT_LISTS);
+                    return tags.toArray(String[]::new);
+                });
 
         long end = System.nanoTime();
         logger.info("Execution time for getStudentsBySubject: {} ms", (end - start) / 1_000_000);
         return students;
     }
 
+    @Override
+    public CursorPage<Student> getStudentsBySubjectPage(Long subjectId, String cursor, int limit) {
+        long start = System.nanoTime();
+        logger.info("Fetching students page for subject {}", subjectId);
+
+        @SuppressWarnings("unchecked")
+        CursorPage<Student> page = (CursorPage<Student>) cache.queries().getOrLoad(
+                "subject-students-page-" + subjectId + "-" + cursor + "-" + limit,
+                () -> studentRepository.viewsOf(keysetRepository.pageIds(
+                        "Student e JOIN e.subjects s", "s.id = :subjectId",
+                        Map.of("subjectId", subjectId), PageOrder.ID, cursor, limit)),
+                loaded -> {
+                    // An enrollment can land on any page of the subject, so every page
+                    // listens for the subject's tag, not only the last.
+                    CursorPage<Student> students = (CursorPage<Student>) loaded;
+                    return CacheTags.page(CacheTags.studentViews(students.items()),
+                            true, CacheTags.subject(subjectId), CacheTags.STUDENT_LISTS);
+                });
+
+        long end = System.nanoTime();
+        logger.info("Execution time for getStudentsBySubjectPage: {} ms",
+                (end - start) / 1_000_000);
+        return page;
+    }
+
     @Override
     public Student findStudentWithSubjects(Long studentId) {
         long start = System.nanoTime();
         logger.info("Fetching student with subjects for ID: {}", studentId);
 
-        Student student = (Student) cache.get("student-with-subjects-" + studentId);
-        if (student == null) {
-            student = studentRepository.findByIdWithSubjects(studentId)
-                    .orElseThrow(() ->
-                            new jakarta.persistence.EntityNotFoundException(STUDENT_ERR));
-            cache.put("student-with-subjects-" + studentId, student);
-        }
+        Student student = (Student) cache.queries().getOrLoad(
+                "student-with-subjects-" + studentId,
+                () -> studentRepository.findByIdWithSubjects(studentId)
+                        .orElseThrow(() ->
+                                new jakarta.persistence.EntityNotFoundException(STUDENT_ERR)),
+                CacheTags.student(studentId), CacheTags.marks(studentId, null));
 
         long end = System.nanoTime();
         logger.info("Execution time for findStudentWithSubjects: {} ms", (end - start) / 1_000_000);
@@ -132,15 +176,14 @@ public class StudentSubjectServiceImpl implements StudentSubjectService {
         long start = System.nanoTime();
         logger.info("Fetching subject with students for ID: {}", subjectId);
 
-        Subject subject = (Subject) cache.get("subject-with-students-" + subjectId);
-        if (subject == null) {
-            subject = subjectRepository.findByIdWithStudents(subjectId)
-                    .orElseThrow(() -> new EntityNotFoundException(SUBJECT_ERR));
-            cache.put("subject-with-students-" + subjectId, subject);
-        }
+        Subject subject = (Subject) cache.queries().getOrLoad(
+                "subject-with-students-" + subjectId,
+                () -> subjectRepository.findByIdWithStudents(subjectId)
+                        .orElseThrow(() -> new EntityNotFoundException(SUBJECT_ERR)),
+                CacheTags.subject(subjectId), CacheTags.STUDENT_LISTS);
 
         long end = System.nanoTime();
         logger.info("Execution time for findSubjectWithStudents: {} ms", (end - start) / 1_000_000);
         return subject;
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,24 @@
 package idespring.lab4.service.studservice;
 
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.StudentFilter;
+import idespring.lab4.dto.StudentReport;
 import idespring.lab4.model.Student;
 import java.util.List;
 
 public interface StudentServ {
     List<Student> readStudents(Integer age, String sort, Long id);
 
+    List<Student> searchStudents(StudentFilter filter);
+
+    CursorPage<Student> readStudentsPage(Integer age, String sort, String cursor, int limit);
+
     List<Student> findByGroupId(Long groupId);
 
     Student findById(Long id);
 
+    StudentReport getReport(Long id);
+
     Student addStudent(Student student);
 
     void updateStudent(String name, int age, long id);
@@ -1,11 +1,22 @@
 package idespring.lab4.service.studservice;
 
-import idespring.lab4.config.CacheConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.CursorPage;
+import idespring.lab4.dto.StudentFilter;
+import idespring.lab4.dto.StudentReport;
 import idespring.lab4.exceptions.EntityNotFoundException;
 import idespring.lab4.model.Mark;
 import idespring.lab4.model.Student;
 import idespring.lab4.model.Subject;
+import idespring.lab4.repository.KeysetRepository;
+import idespring.lab4.repository.PageOrder;
+import idespring.lab4.repository.studentrepo.StudentBatchRepository;
 import idespring.lab4.repository.studentrepo.StudentRepository;
+import idespring.lab4.service.markservice.MarkColumns;
+import idespring.lab4.service.markservice.MarkStatistics;
 import jakarta.transaction.Transactional;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -17,59 +28,131 @@ import org.springframework.stereotype.Service;
 @Service
 public class StudentServiceImpl implements StudentServ {
     private final StudentRepository studentRepository;
-    private final CacheConfig<String, Object> cache;
+    private final StudentBatchRepository studentBatchRepository;
+    private final KeysetRepository keysetRepository;
+    private final MarkStatistics markStatistics;
+    private final MarkColumns markColumns;
+    private final CacheRegions cache;
+    private final ObjectMapper objectMapper;
     private static final String NOTFOUND = "Student not found with id: ";
     private static final Logger logger = LoggerFactory.getLogger(StudentServiceImpl.class);
 
     @Autowired
     public StudentServiceImpl(StudentRepository studentRepository,
-                              CacheConfig<String, Object> cache) {
+                              StudentBatchRepository studentBatchRepository,
+                              KeysetRepository keysetRepository,
+                              MarkStatistics markStatistics,
+                              MarkColumns markColumns,
+                              CacheRegions cache,
+                              ObjectMapper objectMapper) {
         this.studentRepository = studentRepository;
+        this.studentBatchRepository = studentBatchRepository;
+        this.keysetRepository = keysetRepository;
+        this.markStatistics = markStatistics;
+        this.markColumns = markColumns;
         this.cache = cache;
+        this.objectMapper = objectMapper;
     }
 
     @Override
     public List<Student> readStudents(Integer age, String sort, Long id) {
         long start = System.nanoTime();
-        String cacheKey = age + "-" + sort + "-" + id;
+        String cacheKey = "students-" + age + "-" + sort + "-" + id;
         logger.info("Fetching students with age: {}, sort: {}, id: {}", age, sort, id);
 
         @SuppressWarnings("unchecked")
-        List<Student> students = (List<Student>) cache.get(cacheKey);
-        if (students == null) {
-            if (id != null) {
-                students = Collections.singletonList(
-                        studentRepository.findById(id)
-                                .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id))
-                );
-            } else if (age != null && sort != null) {
-                students = studentRepository.findByAgeAndSortByName(age, sort);
-            } else if (age != null) {
-                students = studentRepository.findByAge(age).stream().toList();
-            } else if (sort != null) {
-                students = studentRepository.sortByName(sort);
-            } else {
-                students = studentRepository.findAll();
-            }
-            cache.put(cacheKey, students);
-        }
+        List<Student> students = (List<Student>) cache.queries().getOrLoad(cacheKey,
+                () -> loadStudents(age, sort, id), loaded -> {
+                    List<String> tags = CacheTags.studentViews((List<Student>) loaded);
+                    tags.add(readStudentsTag(age, id));
+                    return tags.toArray(String[]::new);
+                });
 
         long end = System.nanoTime();
         logger.info("Execution time for readStudents: {} ms", (end - start) / 1_000_000);
         return students;
     }
 
+    private List<Student> loadStudents(Integer age, String sort, Long id) {
+        if (id != null) {
+            return Collections.singletonList(loadStudent(id));
+        }
+        return studentRepository.findViews(age, sort);
+    }
+
+    private Student loadStudent(Long id) {
+        List<Student> students = studentRepository.findViewsByIds(List.of(id));
+        if (students.isEmpty()) {
+            throw new EntityNotFoundException(NOTFOUND + id);
+        }
+        return students.get(0);
+    }
+
+    @Override
+    public List<Student> searchStudents(StudentFilter filter) {
+        long start = System.nanoTime();
+        StudentFilter normalized = filter.normalized();
+        logger.info("Searching students with {}", normalized);
+
+        @SuppressWarnings("unchecked")
+        List<Student> students = (List<Student>) cache.queries().getOrLoad(
+                "student-search-" + normalized, () -> studentRepository.search(normalized),
+                loaded -> searchTags(normalized, (List<Student>) loaded));
+
+        long end = System.nanoTime();
+        logger.info("Execution time for searchStudents: {} ms", (end - start) / 1_000_000);
+        return students;
+    }
+
+    private static String[] searchTags(StudentFilter filter, List<Student> students) {
+        List<String> tags = CacheTags.studentViews(students);
+        tags.add(CacheTags.STUDENT_LISTS);
+        if (filter.groupId() != null) {
+            tags.add(CacheTags.group(filter.groupId()));
+        }
+        if (filter.subjectId() != null) {
+            tags.add(CacheTags.subject(filter.subjectId()));
+        }
+        return tags.toArray(String[]::new);
+    }
+
+    @Override
+    public CursorPage<Student> readStudentsPage(Integer age, String sort, String cursor,
+                                                int limit) {
+        long start = System.nanoTime();
+        PageOrder order = PageOrder.of(sort);
+        String cacheKey = "students-page-" + age + "-" + order + "-" + cursor + "-" + limit;
+        logger.info("Fetching students page with age: {}, sort: {}, limit: {}", age, sort, limit);
+
+        @SuppressWarnings("unchecked")
+        CursorPage<Student> page = (CursorPage<Student>) cache.queries().getOrLoad(cacheKey,
+                () -> studentRepository.viewsOf(keysetRepository.pageIds("Student e",
+                        age != null ? "e.age = :age" : null,
+                        age != null ? Map.of("age", age) : Map.of(), order, cursor, limit)),
+                loaded -> {
+                    CursorPage<Student> students = (CursorPage<Student>) loaded;
+                    return CacheTags.page(CacheTags.studentViews(students.items()),
+                            students.isLast() || order.byName() || age != null,
+                            readStudentsTag(age, null));
+                });
+
+        long end = System.nanoTime();
+        logger.info("Execution time for readStudentsPage: {} ms", (end - start) / 1_000_000);
+        return page;
+    }
+
     @Override
     public List<Student> findByGroupId(Long groupId) {
         logger.info("Fetching students from group ID: {}", groupId);
-        String cacheKey = "group-" + groupId;
+        String cacheKey = "group-students-" + groupId;
 
         @SuppressWarnings("unchecked")
-        List<Student> students = (List<Student>) cache.get(cacheKey);
-        if (students == null) {
-            students = studentRepository.findByGroupId(groupId).stream().toList();
-            cache.put(cacheKey, students);
-        }
+        List<Student> students = (List<Student>) cache.queries().getOrLoad(cacheKey,
+                () -> studentRepository.findViewsByGroupId(groupId), loaded -> {
+                    List<String> tags = CacheTags.studentViews((List<Student>) loaded);
+                    tags.add(CacheTags.group(groupId));
+                    return tags.toArray(String[]::new);
+                });
         return students;
     }
 
@@ -78,12 +161,8 @@ public class StudentServiceImpl implements StudentServ {
         long start = System.nanoTime();
         logger.info("Fetching student from database with id: {}", id);
 
-        Student student = (Student) cache.get(id.toString());
-        if (student == null) {
-            student = studentRepository.findById(id)
-                    .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id));
-            cache.put(id.toString(), student);
-        }
+        Student student = cache.students().getOrLoad(id, () -> loadStudent(id),
+                CacheTags.student(id), CacheTags.marks(id, null));
 
         long end = System.nanoTime();
         logger.info("Execution time for findById: {} ms", (end - start) / 1_000_000);
@@ -91,6 +170,44 @@ public class StudentServiceImpl implements StudentServ {
     }
 
     @Override
+    public StudentReport getReport(Long id) {
+        long start = System.nanoTime();
+        logger.info("Fetching report for student with id: {}", id);
+
+        StudentReport report = (StudentReport) cache.queries().getOrLoad("student-report-" + id,
+                () -> loadReport(id), StudentServiceImpl::reportTags);
+
+        long end = System.nanoTime();
+        logger.info("Execution time for getReport: {} ms", (end - start) / 1_000_000);
+        return report;
+    }
+
+    private StudentReport loadReport(Long id) {
+        String json = studentRepository.getReportJson(id)
+                .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id));
+        try {
+            return objectMapper.readValue(json, StudentReport.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Malformed report for student " + id, e);
+        }
+    }
+
+    private static String[] reportTags(Object value) {
+        StudentReport report = (StudentReport) value;
+        List<String> tags = new ArrayList<>();
+        tags.add(CacheTags.student(report.studentId()));
+        tags.add(CacheTags.marks(report.studentId(), null));
+        if (report.groupId() != null) {
+            tags.add(CacheTags.group(report.groupId()));
+        }
+        for (StudentReport.SubjectReport subject : report.subjects()) {
+            tags.add(CacheTags.subject(subject.subjectId()));
+        }
+        return tags.toArray(String[]::new);
+    }
+
+    @Override
+    @Transactional
     public Student addStudent(Student student) {
         final long start = System.nanoTime();
         logger.info("Saving student: {}", student.getName());
@@ -106,12 +223,14 @@ public class StudentServiceImpl implements StudentServ {
 
         student.setSubjects(new HashSet<>());
         Student savedStudent = studentRepository.save(student);
-        cache.put(savedStudent.getId().toString(), savedStudent);
 
-        for (Long subjectId : subjectIds) {
-            studentRepository.addSubject(savedStudent.getId(), subjectId);
+        if (!subjectIds.isEmpty()) {
+            studentBatchRepository.addSubjects(savedStudent.getId(), subjectIds);
         }
 
+        // Only invalidate: the saved entity has no subjects, and a failed link insert rolls
+        // the student back. The next read after commit loads the view.
+        cache.invalidateTags(CacheTags.student(savedStudent.getId()));
         clearRelatedCaches(savedStudent);
 
         long end = System.nanoTime();
@@ -125,6 +244,7 @@ public class StudentServiceImpl implements StudentServ {
         Student student = findById(id);
         studentRepository.update(name, age, id);
         clearStudentCache(id);
+        clearCachesByAge(age);
         clearRelatedCaches(student);
         logger.info("Student with id {} updated", id);
     }
@@ -136,7 +256,11 @@ public class StudentServiceImpl implements StudentServ {
         Student student = studentRepository.findById(id).orElseThrow();
         final Long groupId = student.getGroup() != null ? student.getGroup().getId() : null;
         final int age = student.getAge();
+        final String[] markTags =
+                CacheTags.markDeletes(student.getMarks(), CacheTags.marks(id, null));
 
+        markStatistics.removedAll(student.getMarks());
+        markColumns.removedAll(student.getMarks());
         student.getSubjects().clear();
         studentRepository.saveAndFlush(student);
         studentRepository.delete(student);
@@ -147,56 +271,57 @@ public class StudentServiceImpl implements StudentServ {
             clearGroupCache(groupId);
         }
         clearListCaches();
+        cache.invalidateTags(markTags);
 
         logger.info("Student with id {} deleted", id);
     }
 
     public void clearStudentCache(long id) {
-        cache.remove(String.valueOf(id));
+        cache.invalidateTags(CacheTags.student(id));
         logger.info("Cleared cache for student id: {}", id);
     }
 
     public void clearGroupCache(Long groupId) {
-        String groupCacheKey = "group-" + groupId;
-        cache.remove(groupCacheKey);
-        cache.remove("students-in-group-" + groupId);
+        cache.invalidateTags(CacheTags.group(groupId));
         logger.info("Cleared cache for group id: {}", groupId);
     }
 
-
     public void clearCachesByAge(int age) {
-        List<String> keysToRemove = new ArrayList<>();
-
-        for (int i = 0; i < cache.size(); i++) {
-            String key = age + "-null-null";
-            keysToRemove.add(key);
-
-            key = age + "-asc-null";
-            keysToRemove.add(key);
+        cache.invalidateTags(CacheTags.age(age));
+        logger.info("Cleared caches for age: {}", age);
+    }
 
-            key = age + "-desc-null";
-            keysToRemove.add(key);
-        }
+    /** Invalidates moved students given as their ages by id. */
+    public void clearCachesForStudents(Map<Long, Integer> agesById) {
+        List<String> tags = new ArrayList<>(agesById.size() * 2 + 1);
+        agesById.forEach((id, age) -> {
+            tags.add(CacheTags.student(id));
+            tags.add(CacheTags.age(age));
+        });
+        tags.add(CacheTags.STUDENT_LISTS);
+        cache.invalidateTags(tags.toArray(String[]::new));
+    }
 
-        for (String key : keysToRemove) {
-            cache.remove(key);
+    public void clearCachesForStudents(Collection<Student> students) {
+        List<String> tags = new ArrayList<>(students.size() * 2 + 1);
+        for (Student student : students) {
+            tags.add(CacheTags.student(student.getId()));
+            tags.add(CacheTags.age(student.getAge()));
         }
-
-        logger.info("Cleared caches for age: {}", age);
+        tags.add(CacheTags.STUDENT_LISTS);
+        cache.invalidateTags(tags.toArray(String[]::new));
     }
 
     public void clearListCaches() {
-        List<String> keysToRemove = new ArrayList<>();
-
-        keysToRemove.add("null-null-null");
-        keysToRemove.add("null-asc-null");
-        keysToRemove.add("null-desc-null");
+        cache.invalidateTags(CacheTags.STUDENT_LISTS);
+        logger.info("Cleared list caches");
+    }
 
-        for (String key : keysToRemove) {
-            cache.remove(key);
+    private String readStudentsTag(Integer age, Long id) {
+        if (id != null) {
+            return CacheTags.student(id);
         }
-
-        logger.info("Cleared list caches");
+        return age != null ? CacheTags.age(age) : CacheTags.STUDENT_LISTS;
     }
 
     private void clearRelatedCaches(Student student) {
@@ -1,11 +1,15 @@
 package idespring.lab4.service.subjectservice;
 
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.model.Subject;
 import java.util.List;
 
 public interface SubjectService {
     List<Subject> readSubjects(String namePattern, String sort);
 
+    CursorPage<Subject> readSubjectsPage(String namePattern, String sort, String cursor,
+                                         int limit);
+
     Subject findById(Long id);
 
     Subject findByName(String name);
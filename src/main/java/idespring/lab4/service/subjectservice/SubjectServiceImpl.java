@@ -1,14 +1,17 @@
 package idespring.lab4.service.subjectservice;
 
-import idespring.lab4.config.CacheConfig;
+import idespring.lab4.cache.CacheTags;
+import idespring.lab4.config.CacheRegions;
+import idespring.lab4.dto.CursorPage;
 import idespring.lab4.exceptions.EntityNotFoundException;
-import idespring.lab4.model.Mark;
 import idespring.lab4.model.Subject;
-import idespring.lab4.repository.markrepo.MarkRepository;
+import idespring.lab4.repository.KeysetRepository;
+import idespring.lab4.repository.PageOrder;
 import idespring.lab4.repository.subjectrepo.SubjectRepository;
+import idespring.lab4.service.markservice.MarkColumns;
+import idespring.lab4.service.markservice.MarkStatistics;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,27 +21,38 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class SubjectServiceImpl implements SubjectService {
     private final SubjectRepository subjectRepository;
-    private final MarkRepository markRepository;
-    private final CacheConfig<String, Object> cache;
+    private final KeysetRepository keysetRepository;
+    private final MarkStatistics markStatistics;
+    private final MarkColumns markColumns;
+    private final CacheRegions cache;
     private static final String NOTFOUND = "Subject not found with id: ";
+    private static final String SUBJECT_NAME_PREFIX = "subject-name-";
     private static final Logger logger = LoggerFactory.getLogger(SubjectServiceImpl.class);
 
     @Autowired
     public SubjectServiceImpl(SubjectRepository subjectRepository,
-                              MarkRepository markRepository,
-                              CacheConfig<String, Object> cache) {
+                              KeysetRepository keysetRepository,
+                              MarkStatistics markStatistics,
+                              MarkColumns markColumns,
+                              CacheRegions cache) {
         this.subjectRepository = subjectRepository;
-        this.markRepository = markRepository;
+        this.keysetRepository = keysetRepository;
+        this.markStatistics = markStatistics;
+        this.markColumns = markColumns;
         this.cache = cache;
     }
 
     @Override
     public List<Subject> readSubjects(String namePattern, String sort) {
-        String cacheKey = namePattern + "-" + (sort != null ? sort : "default");
-        if (cache.get(cacheKey) != null) {
-            return (List<Subject>) cache.get(cacheKey);
-        }
+        String cacheKey = "subjects-" + namePattern + "-" + (sort != null ? sort : "default");
+
+        @SuppressWarnings("unchecked")
+        List<Subject> subjects = (List<Subject>) cache.queries().getOrLoad(cacheKey,
+                () -> loadSubjects(namePattern, sort), CacheTags.SUBJECT_LISTS);
+        return subjects;
+    }
 
+    private List<Subject> loadSubjects(String namePattern, String sort) {
         final long start = System.nanoTime();
         logger.info("Fetching subjects from database for namePattern: {}, sort: {}",
                 namePattern, sort);
@@ -52,49 +66,75 @@ public class SubjectServiceImpl implements SubjectService {
             subjects = subjectRepository.findAll();
         }
 
-        cache.put(cacheKey, subjects);
         long end = System.nanoTime();
         logger.info("Execution time for readSubjects: {} ms", (end - start) / 1_000_000);
         return subjects;
     }
 
     @Override
-    public Subject findById(Long id) {
-        String cacheKey = "subject-" + id;
-        if (cache.get(cacheKey) != null) {
-            return (Subject) cache.get(cacheKey);
-        }
+    public CursorPage<Subject> readSubjectsPage(String namePattern, String sort, String cursor,
+                                                int limit) {
+        PageOrder order = PageOrder.of(sort);
+        String cacheKey = "subjects-page-" + namePattern + "-" + order + "-" + cursor
+                + "-" + limit;
+
+        @SuppressWarnings("unchecked")
+        CursorPage<Subject> page = (CursorPage<Subject>) cache.queries().getOrLoad(cacheKey,
+                () -> {
+                    long start = System.nanoTime();
+                    logger.info("Fetching subjects page for namePattern: {}, sort: {}, limit: {}",
+                            namePattern, sort, limit);
+                    CursorPage<Subject> subjects = keysetRepository.page("Subject e",
+                            namePattern != null ? "e.name LIKE :pattern" : null,
+                            namePattern != null
+                                    ? Map.of("pattern", "%" + namePattern + "%") : Map.of(),
+                            order, cursor, limit);
+                    long end = System.nanoTime();
+                    logger.info("Execution time for readSubjectsPage: {} ms",
+                            (end - start) / 1_000_000);
+                    return subjects;
+                }, loaded -> {
+                    CursorPage<Subject> subjects = (CursorPage<Subject>) loaded;
+                    return CacheTags.page(
+                            subjects.items().stream().map(s -> CacheTags.subject(s.getId()))
+                                    .toList(),
+                            subjects.isLast() || order.byName() || namePattern != null,
+                            CacheTags.SUBJECT_LISTS);
+                });
+        return page;
+    }
 
-        long start = System.nanoTime();
-        logger.info("Fetching subject from database for id: {}", id);
+    @Override
+    public Subject findById(Long id) {
+        return cache.subjects().getOrLoad(id, () -> {
+            long start = System.nanoTime();
+            logger.info("Fetching subject from database for id: {}", id);
 
-        Subject subject = subjectRepository.findById(id)
-                .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id));
+            Subject subject = subjectRepository.findById(id)
+                    .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id));
 
-        cache.put(cacheKey, subject);
-        long end = System.nanoTime();
-        logger.info("Execution time for findById: {} ms", (end - start) / 1_000_000);
-        return subject;
+            long end = System.nanoTime();
+            logger.info("Execution time for findById: {} ms", (end - start) / 1_000_000);
+            return subject;
+        }, CacheTags.subject(id));
     }
 
     @Override
     public Subject findByName(String name) {
-        String cacheKey = "subject-" + name;
-        if (cache.get(cacheKey) != null) {
-            return (Subject) cache.get(cacheKey);
-        }
+        String cacheKey = SUBJECT_NAME_PREFIX + name;
 
-        long start = System.nanoTime();
-        logger.info("Fetching subject from database for name: {}", name);
+        return (Subject) cache.queries().getOrLoad(cacheKey, () -> {
+            long start = System.nanoTime();
+            logger.info("Fetching subject from database for name: {}", name);
 
-        Subject subject = subjectRepository.findByName(name)
-                .orElseThrow(() -> new
-                        EntityNotFoundException("Subject not found with name: " + name));
+            Subject subject = subjectRepository.findByName(name)
+                    .orElseThrow(() -> new
+                            EntityNotFoundException("Subject not found with name: " + name));
 
-        cache.put(cacheKey, subject);
-        long end = System.nanoTime();
-        logger.info("Execution time for findByName: {} ms", (end - start) / 1_000_000);
-        return subject;
+            long end = System.nanoTime();
+            logger.info("Execution time for findByName: {} ms", (end - start) / 1_000_000);
+            return subject;
+        }, subject -> new String[] {CacheTags.subject(((Subject) subject).getId())});
     }
 
     @Override
@@ -103,8 +143,10 @@ public class SubjectServiceImpl implements SubjectService {
         logger.info("Saving subject: {}", subject.getName());
 
         Subject savedSubject = subjectRepository.save(subject);
-        cache.put("subject-" + savedSubject.getId(), savedSubject);
-        cache.put("subject-" + savedSubject.getName(), savedSubject);
+        String subjectTag = CacheTags.subject(savedSubject.getId());
+        cache.subjects().put(savedSubject.getId(), savedSubject, subjectTag);
+        cache.queries().put(SUBJECT_NAME_PREFIX + savedSubject.getName(), savedSubject, subjectTag);
+        cache.invalidateTags(CacheTags.SUBJECT_LISTS);
 
         long end = System.nanoTime();
         logger.info("Execution time for addSubject: {} ms", (end - start) / 1_000_000);
@@ -119,6 +161,8 @@ public class SubjectServiceImpl implements SubjectService {
                 .orElseThrow(() -> new EntityNotFoundException(NOTFOUND + id));
 
         clearCacheForSubject(subject);
+        markStatistics.removedAll(subject.getMarks());
+        markColumns.removedAll(subject.getMarks());
 
         subjectRepository.deleteById(id);
         logger.info("Subject with id {} deleted", id);
@@ -133,6 +177,8 @@ public class SubjectServiceImpl implements SubjectService {
                         new EntityNotFoundException("Subject not found with name: " + name));
 
         clearCacheForSubject(subject);
+        markStatistics.removedAll(subject.getMarks());
+        markColumns.removedAll(subject.getMarks());
 
         subjectRepository.deleteByName(name);
         logger.info("Subject with name {} deleted", name);
@@ -145,26 +191,8 @@ public class SubjectServiceImpl implements SubjectService {
     }
 
     private void clearCacheForSubject(Subject subject) {
-        Long subjectId = subject.getId();
-
-        cache.remove("subject-" + subjectId);
-        cache.remove("subject-" + subject.getName());
-
-        cache.remove("avg-subject-" + subjectId);
-
-        List<Mark> subjectMarks = markRepository.findBySubjectId(subjectId);
-
-        Set<Long> affectedStudentIds = subjectMarks.stream()
-                .map(mark -> mark.getStudent().getId())
-                .collect(Collectors.toSet());
-
-        for (Long studentId : affectedStudentIds) {
-            cache.remove("marks-" + studentId + "-" + subjectId);
-            cache.remove("avg-student-" + studentId);
-        }
-
-        for (Mark mark : subjectMarks) {
-            cache.remove("mark-" + mark.getId());
-        }
+        cache.invalidateTags(CacheTags.subject(subject.getId()), CacheTags.SUBJECT_LISTS);
+        cache.invalidateTags(CacheTags.markDeletes(subject.getMarks(),
+                CacheTags.marks(null, subject.getId())));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package idespring.lab4.threads;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id = "pinning")
+public class PinningEndpoint {
+    private final PinningMonitor monitor;
+
+    @Autowired
+    public PinningEndpoint(PinningMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @ReadOperation
+    public Map<String, Object> pinning() {
+        return monitor.snapshot();
+    }
+}
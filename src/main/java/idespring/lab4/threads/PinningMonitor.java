@@ -0,0 +1,155 @@
+package idespring.lab4.threads;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier, typically by blocking inside a
+ * {@code synchronized} block or a native frame. Listens to the JFR
+ * {@code jdk.VirtualThreadPinned} event in-process and counts pins by the innermost
+ * application frame, logging each new site once with its stack.
+ */
+@Component
+public class PinningMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(PinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APPLICATION_PACKAGE = "idespring.lab4.";
+    private static final int LOGGED_FRAMES = 12;
+
+    private final boolean enabled;
+    private final Duration threshold;
+    private final ConcurrentHashMap<String, Site> sites = new ConcurrentHashMap<>();
+    private final LongAdder pins = new LongAdder();
+    private volatile RecordingStream stream;
+
+    @Autowired
+    public PinningMonitor(
+            @Value("${threads.pinning.enabled:${spring.threads.virtual.enabled:false}}")
+            boolean enabled,
+            @Value("${threads.pinning.thresholdMillis:20}") long thresholdMillis) {
+        this.enabled = enabled;
+        this.threshold = Duration.ofMillis(thresholdMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            RecordingStream recording = new RecordingStream();
+            recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            recording.onEvent(PINNED_EVENT, this::record);
+            recording.startAsync();
+            stream = recording;
+            logger.info("Watching for virtual threads pinned longer than {} ms",
+                    threshold.toMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Pinning monitor not started, JFR is unavailable: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        RecordingStream recording = stream;
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", stream != null);
+        report.put("thresholdMillis", threshold.toMillis());
+        report.put("pins", pins.sum());
+        Map<String, Object> bySite = new LinkedHashMap<>();
+        sites.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().count.sum(),
+                        a.getValue().count.sum()))
+                .forEach(entry -> bySite.put(entry.getKey(), Map.of(
+                        "count", entry.getValue().count.sum(),
+                        "maxMillis", entry.getValue().maxNanos.get() / 1_000_000.0)));
+        report.put("sites", bySite);
+        return report;
+    }
+
+    private void record(RecordedEvent event) {
+        pins.increment();
+        long nanos = event.getDuration().toNanos();
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        List<RecordedFrame> frames = stackTrace != null ? stackTrace.getFrames() : List.of();
+        String site = siteOf(frames);
+
+        boolean[] first = new boolean[1];
+        Site counters = sites.computeIfAbsent(site, key -> {
+            first[0] = true;
+            return new Site();
+        });
+        counters.count.increment();
+        counters.maxNanos.accumulateAndGet(nanos, Math::max);
+
+        if (first[0]) {
+            StringBuilder stack = new StringBuilder();
+            for (int i = 0; i < Math.min(LOGGED_FRAMES, frames.size()); i++) {
+                stack.append(System.lineSeparator()).append("\tat ").append(format(frames.get(i)));
+            }
+            logger.warn("Virtual thread pinned for {} ms at {}{}", nanos / 1_000_000, site, stack);
+        } else {
+            logger.debug("Virtual thread pinned for {} ms at {}", nanos / 1_000_000, site);
+        }
+    }
+
+    /**
+     * The innermost application frame, else the innermost frame outside the JDK (a driver
+     * or pool), else the innermost frame.
+     */
+    private static String siteOf(List<RecordedFrame> frames) {
+        RecordedFrame library = null;
+        for (RecordedFrame frame : frames) {
+            if (!frame.isJavaFrame()) {
+                continue;
+            }
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith(APPLICATION_PACKAGE)) {
+                return format(frame);
+            }
+            if (library == null && !isJdk(type)) {
+                library = frame;
+            }
+        }
+        if (library != null) {
+            return format(library);
+        }
+        return frames.isEmpty() ? "unknown" : format(frames.get(0));
+    }
+
+    private static boolean isJdk(String type) {
+        return type.startsWith("java.") || type.startsWith("jdk.") || type.startsWith("sun.");
+    }
+
+    private static String format(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + ":" + frame.getLineNumber();
+    }
+
+    private static final class Site {
+        final LongAdder count = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,140 @@
+package idespring.lab4.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+    private final List<String> removals = new ArrayList<>();
+
+    @Test
+    void putReturnsThePriorValueAndRemoveDropsTheEntry() {
+        BoundedCache<String, String> cache = cache(10, 0, Weigher.elementCount());
+
+        assertNull(cache.put("a", "1"));
+        assertEquals("1", cache.put("a", "2"));
+        assertEquals("2", cache.get("a"));
+        assertEquals("2", cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void replaceAndConditionalRemoveMatchTheCurrentValue() {
+        BoundedCache<String, String> cache = cache(10, 0, Weigher.elementCount());
+        String first = "first";
+        cache.put("a", first);
+
+        assertFalse(cache.replace("a", "other", "second"));
+        assertTrue(cache.replace("a", first, "second"));
+        assertFalse(cache.remove("a", first));
+        assertEquals("second", cache.get("a"));
+    }
+
+    @Test
+    void evictsDownToTheMaximumWeight() {
+        BoundedCache<Integer, Integer> cache = cache(100, 0, Weigher.elementCount());
+        for (int i = 0; i < 1_000; i++) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.weightedSize());
+        assertEquals(900, removals.size());
+        assertTrue(removals.stream().allMatch(removal -> removal.endsWith(":SIZE")));
+    }
+
+    @Test
+    void weighsCollectionsByTheirElements() {
+        BoundedCache<Integer, List<Integer>> cache = cache(100, 0, Weigher.elementCount());
+        cache.put(1, List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        cache.put(2, List.of(1, 2, 3));
+        cache.cleanUp();
+
+        assertEquals(13, cache.weightedSize());
+    }
+
+    @Test
+    void neverKeepsAnEntryHeavierThanTheMaximum() {
+        BoundedCache<String, String> cache = cache(10, 0, (key, value) -> value.length());
+        cache.put("small", "abc");
+        cache.put("huge", "x".repeat(20));
+        cache.cleanUp();
+
+        assertNull(cache.get("huge"));
+        assertEquals("abc", cache.get("small"));
+        assertEquals(List.of("huge:SIZE"), removals);
+    }
+
+    @Test
+    void keepsFrequentlyReadEntriesThroughAScan() {
+        BoundedCache<Integer, Integer> cache = cache(100, 0, Weigher.elementCount());
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get(i);
+            }
+            cache.cleanUp();
+        }
+
+        for (int i = 1_000; i < 3_000; i++) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+
+        int kept = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                kept++;
+            }
+        }
+        // An LRU would keep none; sketch aging during the scan may cost a few hot keys.
+        assertTrue(kept >= 45, "kept only " + kept + " hot entries");
+    }
+
+    @Test
+    void hidesExpiredEntriesOnRead() throws InterruptedException {
+        BoundedCache<String, String> cache =
+                cache(10, TimeUnit.MILLISECONDS.toNanos(50), Weigher.elementCount());
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("a"));
+        assertEquals(List.of("a:EXPIRED"), removals);
+    }
+
+    @Test
+    void reclaimsExpiredEntriesDuringMaintenance() throws InterruptedException {
+        BoundedCache<String, String> cache =
+                cache(10, TimeUnit.MILLISECONDS.toNanos(50), Weigher.elementCount());
+        cache.put("a", "1");
+
+        // The finest wheel level ticks about once a second.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            cache.cleanUp();
+        }
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+        assertEquals(List.of("a:EXPIRED"), removals);
+    }
+
+    private <K, V> BoundedCache<K, V> cache(long maximum, long expireAfterWriteNanos,
+                                            Weigher<K, V> weigher) {
+        return new BoundedCache<>(maximum, expireAfterWriteNanos, weigher,
+                (key, value, cause) -> removals.add(key + ":" + cause));
+    }
+}
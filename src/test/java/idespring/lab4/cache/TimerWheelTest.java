@@ -0,0 +1,87 @@
+package idespring.lab4.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    void expiresNodesOnceTheirTimeHasPassed() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(0);
+        wheel.schedule(node("soon"), 3 * SECOND);
+        wheel.schedule(node("later"), 10 * SECOND);
+
+        wheel.advance(2 * SECOND, this::expire);
+        assertEquals(List.of(), expired);
+
+        wheel.advance(5 * SECOND, this::expire);
+        assertEquals(List.of("soon"), expired);
+
+        wheel.advance(12 * SECOND, this::expire);
+        assertEquals(List.of("soon", "later"), expired);
+    }
+
+    @Test
+    void cascadesDistantTimersDownTheWheel() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(0);
+        long hour = TimeUnit.HOURS.toNanos(1);
+        wheel.schedule(node("hour"), hour);
+        wheel.schedule(node("day"), TimeUnit.DAYS.toNanos(1));
+
+        for (long now = 0; now < hour - SECOND; now += 30 * SECOND) {
+            wheel.advance(now, this::expire);
+        }
+        assertEquals(List.of(), expired);
+
+        for (long now = hour - SECOND; now <= hour + 2 * SECOND; now += SECOND / 2) {
+            wheel.advance(now, this::expire);
+        }
+        assertEquals(List.of("hour"), expired);
+    }
+
+    @Test
+    void doesNotExpireDescheduledNodes() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(0);
+        Node<String, String> node = node("cancelled");
+        wheel.schedule(node, SECOND);
+        wheel.deschedule(node);
+
+        wheel.advance(5 * SECOND, this::expire);
+
+        assertEquals(List.of(), expired);
+    }
+
+    @Test
+    void reschedulesNodesTheExpirerDeclines() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(0);
+        Node<String, String> node = node("refreshed");
+        wheel.schedule(node, SECOND);
+
+        wheel.advance(2 * SECOND, due -> {
+            // A concurrent write moved the expiry out.
+            due.expireAt = 4 * SECOND;
+            return false;
+        });
+        wheel.advance(3 * SECOND, this::expire);
+        assertEquals(List.of(), expired);
+
+        wheel.advance(6 * SECOND, this::expire);
+        assertEquals(List.of("refreshed"), expired);
+    }
+
+    private boolean expire(Node<String, String> node) {
+        expired.add(node.getKey());
+        return true;
+    }
+
+    private static Node<String, String> node(String key) {
+        return new Node<>(key, key, 1, 0);
+    }
+}
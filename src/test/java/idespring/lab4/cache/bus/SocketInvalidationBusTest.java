@@ -0,0 +1,94 @@
+package idespring.lab4.cache.bus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SocketInvalidationBusTest {
+    private static final long BATCH_DELAY_MILLIS = 200;
+    private static final long DELIVERY_TIMEOUT_MILLIS = 2_000;
+    private static final long QUIET_MILLIS = 2 * BATCH_DELAY_MILLIS + 300;
+
+    private final List<SocketInvalidationBus> buses = new ArrayList<>();
+
+    @AfterEach
+    void closeBuses() {
+        buses.forEach(SocketInvalidationBus::close);
+    }
+
+    @Test
+    void deliversPublishedTagsToPeers() throws Exception {
+        InetSocketAddress first = freeAddress();
+        InetSocketAddress second = freeAddress();
+        SocketInvalidationBus sender = bus(first, List.of(second));
+        BlockingQueue<String[]> received = receiver(bus(second, List.of(first)));
+
+        sender.publish("student:1", "marks:1:*");
+
+        assertArrayEquals(new String[] {"student:1", "marks:1:*"}, next(received));
+    }
+
+    @Test
+    void batchesAndDeduplicatesTagsPublishedWithinTheDelay() throws Exception {
+        InetSocketAddress first = freeAddress();
+        InetSocketAddress second = freeAddress();
+        SocketInvalidationBus sender = bus(first, List.of(second));
+        BlockingQueue<String[]> received = receiver(bus(second, List.of(first)));
+
+        sender.publish("students");
+        sender.publish("student:1", "students");
+        sender.publish("student:2");
+
+        assertArrayEquals(new String[] {"students", "student:1", "student:2"}, next(received));
+        assertNull(received.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void ignoresItsOwnDatagrams() throws Exception {
+        InetSocketAddress self = freeAddress();
+        InetSocketAddress peer = freeAddress();
+        SocketInvalidationBus sender = bus(self, List.of(self, peer));
+        BlockingQueue<String[]> echoed = receiver(sender);
+        BlockingQueue<String[]> received = receiver(bus(peer, List.of(self)));
+
+        sender.publish("groups");
+
+        assertArrayEquals(new String[] {"groups"}, next(received));
+        assertNull(echoed.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private SocketInvalidationBus bus(InetSocketAddress address, List<InetSocketAddress> peers)
+            throws IOException {
+        SocketInvalidationBus bus = new SocketInvalidationBus(address, peers, BATCH_DELAY_MILLIS);
+        buses.add(bus);
+        return bus;
+    }
+
+    private static BlockingQueue<String[]> receiver(InvalidationBus bus) {
+        BlockingQueue<String[]> received = new LinkedBlockingQueue<>();
+        bus.subscribe(received::add);
+        return received;
+    }
+
+    private static String[] next(BlockingQueue<String[]> received) throws InterruptedException {
+        return received.poll(DELIVERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static InetSocketAddress freeAddress() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            probe.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            return (InetSocketAddress) probe.getLocalAddress();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package idespring.lab4.dto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import idespring.lab4.exceptions.ValidationException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+class PageCursorTest {
+
+    @Test
+    void roundTripsIdOnlyCursors() {
+        PageCursor cursor = new PageCursor(42, null);
+
+        assertEquals(cursor, PageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void roundTripsNamesWithSeparatorsAndNonAsciiCharacters() {
+        PageCursor cursor = new PageCursor(7, "Иванов: группа 1/2?");
+
+        assertEquals(cursor, PageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void keepsAnEmptyNameApartFromNoName() {
+        PageCursor cursor = new PageCursor(3, "");
+
+        assertEquals(cursor, PageCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void encodesToUrlSafeTokens() {
+        String token = new PageCursor(Long.MAX_VALUE, "a+b/c=d~~~").encode();
+
+        assertTrue(token.matches("[A-Za-z0-9_-]+"), token);
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertThrows(ValidationException.class, () -> PageCursor.decode("not base64!"));
+        assertThrows(ValidationException.class, () -> PageCursor.decode(token("abc")));
+        assertThrows(ValidationException.class, () -> PageCursor.decode(token("x:name")));
+        assertThrows(ValidationException.class, () -> PageCursor.decode(""));
+    }
+
+    private static String token(String key) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
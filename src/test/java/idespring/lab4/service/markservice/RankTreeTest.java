@@ -0,0 +1,110 @@
+package idespring.lab4.service.markservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RankTreeTest {
+    // Higher average first, ties broken by more marks, then by lower id: the leaderboard order.
+    private static final Comparator<Score> ORDER = (a, b) -> {
+        int byAverage = Long.compare(b.sum() * a.count(), a.sum() * b.count());
+        if (byAverage != 0) {
+            return byAverage;
+        }
+        int byCount = Long.compare(b.count(), a.count());
+        return byCount != 0 ? byCount : Long.compare(a.id(), b.id());
+    };
+
+    private record Score(long id, long sum, long count) {
+    }
+
+    @Test
+    void ranksEqualAveragesByTieBreakers() {
+        RankTree<Score> tree = new RankTree<>(ORDER);
+        Score fewMarks = new Score(1, 8, 2);
+        Score manyMarks = new Score(2, 16, 4);
+        Score laterId = new Score(3, 8, 2);
+        Score best = new Score(4, 5, 1);
+        tree.insert(laterId);
+        tree.insert(fewMarks);
+        tree.insert(best);
+        tree.insert(manyMarks);
+
+        assertEquals(List.of(best, manyMarks, fewMarks, laterId), tree.first(10));
+        assertEquals(0, tree.rankOf(best));
+        assertEquals(1, tree.rankOf(manyMarks));
+        assertEquals(2, tree.rankOf(fewMarks));
+        assertEquals(3, tree.rankOf(laterId));
+    }
+
+    @Test
+    void removesOnlyTheMatchingTiedScore() {
+        RankTree<Score> tree = new RankTree<>(ORDER);
+        Score first = new Score(1, 8, 2);
+        Score second = new Score(2, 8, 2);
+        Score third = new Score(3, 8, 2);
+        tree.insert(first);
+        tree.insert(second);
+        tree.insert(third);
+
+        tree.remove(second);
+
+        assertEquals(2, tree.size());
+        assertEquals(-1, tree.rankOf(second));
+        assertEquals(0, tree.rankOf(first));
+        assertEquals(1, tree.rankOf(third));
+        assertEquals(List.of(first, third), tree.first(10));
+    }
+
+    @Test
+    void ignoresRemovalOfAbsentScore() {
+        RankTree<Score> tree = new RankTree<>(ORDER);
+        tree.insert(new Score(1, 4, 1));
+
+        tree.remove(new Score(2, 4, 1));
+
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    void firstStopsAtLimitOrSize() {
+        RankTree<Score> tree = new RankTree<>(ORDER);
+        for (long id = 1; id <= 5; id++) {
+            tree.insert(new Score(id, id, 1));
+        }
+
+        assertEquals(List.of(), tree.first(0));
+        assertEquals(List.of(new Score(5, 5, 1), new Score(4, 4, 1)), tree.first(2));
+        assertEquals(5, tree.first(100).size());
+    }
+
+    @Test
+    void matchesSortedListUnderRandomUpdates() {
+        Random random = new Random(42);
+        RankTree<Score> tree = new RankTree<>(ORDER);
+        List<Score> expected = new ArrayList<>();
+        for (int step = 0; step < 5_000; step++) {
+            if (!expected.isEmpty() && random.nextInt(3) == 0) {
+                Score removed = expected.remove(random.nextInt(expected.size()));
+                tree.remove(removed);
+            } else {
+                // Few distinct averages, so most scores tie with others.
+                long count = 1 + random.nextInt(4);
+                Score added = new Score(step, count * (2 + random.nextInt(4)), count);
+                expected.add(added);
+                tree.insert(added);
+            }
+        }
+        expected.sort(ORDER);
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected, tree.first(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, tree.rankOf(expected.get(i)));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package idespring.lab4.service.markservice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import idespring.lab4.service.markservice.SeedJournal.Visibility;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+class SeedJournalTest {
+    private final ReentrantReadWriteLock viewLock = new ReentrantReadWriteLock();
+    private final SeedJournal<String> journal = new SeedJournal<>(viewLock.readLock());
+    private final List<String> undone = new ArrayList<>();
+
+    @Test
+    void leavesOutWritesCommittedBeforeTheSeed() {
+        record("before");
+        List<TransactionSynchronization> committed = inTransaction(() -> record("committed"));
+        commit(committed);
+
+        SeedJournal.Seed<String> seed = journal.begin();
+        seed.queried();
+
+        assertEquals(Map.of(), finish(seed));
+    }
+
+    @Test
+    void classifiesWritesAroundTheQuery() {
+        SeedJournal.Seed<String> seed = journal.begin();
+        tick();
+        record("during");
+        tick();
+        seed.queried();
+        tick();
+        record("after");
+
+        assertEquals(Map.of("during", Visibility.UNKNOWN, "after", Visibility.AFTER_SNAPSHOT),
+                finish(seed));
+    }
+
+    @Test
+    void replaysWritesOfTransactionsStillOpen() {
+        List<TransactionSynchronization> open = inTransaction(() -> record("open"));
+
+        SeedJournal.Seed<String> seed = journal.begin();
+        seed.queried();
+
+        assertEquals(Map.of("open", Visibility.AFTER_SNAPSHOT), finish(seed));
+        commit(open);
+    }
+
+    @Test
+    void treatsCommitsDuringTheQueryAsUnknown() {
+        List<TransactionSynchronization> open = inTransaction(() -> record("racing"));
+
+        SeedJournal.Seed<String> seed = journal.begin();
+        tick();
+        commit(open);
+        tick();
+        seed.queried();
+
+        assertEquals(Map.of("racing", Visibility.UNKNOWN), finish(seed));
+    }
+
+    @Test
+    void undoesRolledBackWritesUnderTheViewLockAndDropsThem() {
+        List<TransactionSynchronization> open = inTransaction(() -> record("rolled back"));
+        SeedJournal.Seed<String> seed = journal.begin();
+        seed.queried();
+
+        for (TransactionSynchronization sync : open) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        assertEquals(List.of("rolled back"), undone);
+        assertEquals(Map.of(), finish(seed));
+    }
+
+    @Test
+    void stopsCollectingForCancelledSeeds() {
+        SeedJournal.Seed<String> cancelled = journal.begin();
+        journal.cancel(cancelled);
+        SeedJournal.Seed<String> seed = journal.begin();
+        seed.queried();
+        tick();
+        record("after");
+
+        assertEquals(Map.of("after", Visibility.AFTER_SNAPSHOT), finish(seed));
+        assertEquals(Map.of(), finish(cancelled));
+    }
+
+    private void record(String delta) {
+        journal.record(delta, () -> {
+            assertEquals(1, viewLock.getReadHoldCount(), "undo must run under the view lock");
+            undone.add(delta);
+        });
+    }
+
+    private Map<String, Visibility> finish(SeedJournal.Seed<String> seed) {
+        Map<String, Visibility> handed = new LinkedHashMap<>();
+        viewLock.writeLock().lock();
+        try {
+            journal.finish(seed, handed::put);
+        } finally {
+            viewLock.writeLock().unlock();
+        }
+        return handed;
+    }
+
+    private static List<TransactionSynchronization> inTransaction(Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            work.run();
+            return TransactionSynchronizationManager.getSynchronizations();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static void commit(List<TransactionSynchronization> synchronizations) {
+        for (TransactionSynchronization sync : synchronizations) {
+            sync.beforeCommit(false);
+        }
+        for (TransactionSynchronization sync : synchronizations) {
+            sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+    }
+
+    /** Lets the clock move, so the journal's timestamps order the steps of a test. */
+    private static void tick() {
+        long start = System.nanoTime();
+        while (System.nanoTime() == start) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package idespring.lab4.threads;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Closed-loop HTTP load driver for comparing the platform and virtual thread modes. Each of
+ * {@code concurrency} clients sends a request, waits for the answer and sends the next,
+ * cycling through the given URLs; latencies from the warm-up period are discarded. Lives
+ * with the test sources so it stays out of the application artifact, and uses only the
+ * JDK, so it runs straight from the compiled test classes against a running instance:
+ *
+ * <pre>
+ * mvn spring-boot:run
+ * mvn spring-boot:run -Dspring-boot.run.arguments=--spring.threads.virtual.enabled=true
+ * mvn test-compile
+ * java -cp target/test-classes idespring.lab4.threads.LoadBenchmark \
+ *     http://localhost:8080/students/1/report,http://localhost:8080/students/search 400 30 10
+ * </pre>
+ *
+ * <p>Run both modes with the same data, concurrency and duration and compare the throughput
+ * and p99 lines. A concurrency above the Tomcat pool size (200 by default) is what shows the
+ * difference; below it both modes have a thread per request.
+ */
+public final class LoadBenchmark {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private LoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadBenchmark <url[,url...]> [concurrency=200]"
+                    + " [seconds=30] [warmupSeconds=10]");
+            System.exit(2);
+        }
+        List<URI> targets = Arrays.stream(args[0].split(",")).map(URI::create).toList();
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+        long warmupSeconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build();
+        long measureFrom = System.nanoTime() + Duration.ofSeconds(warmupSeconds).toNanos();
+        long stopAt = measureFrom + Duration.ofSeconds(seconds).toNanos();
+
+        List<Future<Result>> futures = new ArrayList<>(concurrency);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                int offset = i;
+                futures.add(clients.submit(
+                        () -> drive(client, targets, offset, measureFrom, stopAt)));
+            }
+        }
+
+        Result total = new Result();
+        for (Future<Result> future : futures) {
+            total.merge(future.get());
+        }
+        total.report(concurrency, seconds);
+    }
+
+    private static Result drive(HttpClient client, List<URI> targets, int offset,
+                                long measureFrom, long stopAt) {
+        Result result = new Result();
+        for (int i = offset; ; i++) {
+            long start = System.nanoTime();
+            if (start >= stopAt) {
+                return result;
+            }
+            HttpRequest request = HttpRequest.newBuilder(targets.get(i % targets.size()))
+                    .timeout(REQUEST_TIMEOUT)
+                    .GET()
+                    .build();
+            boolean ok;
+            try {
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding())
+                        .statusCode();
+                ok = status < 500 && status != 429;
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return result;
+            }
+            if (start >= measureFrom) {
+                result.add(System.nanoTime() - start, ok);
+            }
+        }
+    }
+
+    private static final class Result {
+        private long[] latencies = new long[1024];
+        private int size;
+        private long errors;
+
+        void add(long nanos, boolean ok) {
+            if (!ok) {
+                errors++;
+                return;
+            }
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = nanos;
+        }
+
+        void merge(Result other) {
+            if (size + other.size > latencies.length) {
+                latencies = Arrays.copyOf(latencies, size + other.size);
+            }
+            System.arraycopy(other.latencies, 0, latencies, size, other.size);
+            size += other.size;
+            errors += other.errors;
+        }
+
+        void report(int concurrency, long seconds) {
+            Arrays.sort(latencies, 0, size);
+            System.out.printf("concurrency  %d%n", concurrency);
+            System.out.printf("requests     %d ok, %d failed%n", size, errors);
+            System.out.printf("throughput   %.1f req/s%n", (double) size / seconds);
+            System.out.printf("p50          %.2f ms%n", percentile(0.50));
+            System.out.printf("p99          %.2f ms%n", percentile(0.99));
+            System.out.printf("max          %.2f ms%n", percentile(1.0));
+        }
+
+        private double percentile(double p) {
+            if (size == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.min(size - 1, Math.ceil(p * size) - 1);
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}